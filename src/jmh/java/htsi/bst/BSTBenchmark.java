@@ -0,0 +1,311 @@
+package htsi.bst;
+
+import java.io.*;
+import java.util.AbstractMap.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * Compares the self-balancing persistent BST with java.util.TreeMap.
+ *
+ * Every benchmark runs in throughput and sample time mode, the latter reports latency percentiles.
+ * Run with the gc profiler (the default of the jmh task) to see allocation rates per operation.
+ * Trees are self-balancing because sorted insertion into an unbalanced tree of 10^6 entries would be quadratic.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BSTBenchmark {
+
+	private static final int LOOKUPS = 1024;
+	private static final int CLUSTER_SIZE = 64;
+
+	public enum Distribution {
+		// Distinct keys in random insertion order
+		RANDOM,
+		// Keys 0 until size in ascending order
+		SORTED,
+		// Runs of consecutive keys whose starting points are random
+		CLUSTERED;
+
+		int[] keys(int size, Random random) {
+			switch (this) {
+				case SORTED:
+					int[] sorted = new int[size];
+					for (int i = 0; i < size; i++) {
+						sorted[i] = i;
+					}
+					return sorted;
+				case CLUSTERED:
+					int[] clustered = new int[size];
+					int[] starts = distinct(size / CLUSTER_SIZE + 1, random);
+					for (int i = 0; i < size; i++) {
+						clustered[i] = starts[i / CLUSTER_SIZE] * CLUSTER_SIZE + i % CLUSTER_SIZE;
+					}
+					return clustered;
+				default:
+					return distinct(size, random);
+			}
+		}
+
+		// Distinct random keys from a range ten times the size, in random order
+		private static int[] distinct(int count, Random random) {
+			Set<Integer> seen = new HashSet<>();
+			int[] keys = new int[count];
+			int i = 0;
+			while (i < count) {
+				int key = random.nextInt(10 * count);
+				if (seen.add(key)) {
+					keys[i++] = key;
+				}
+			}
+			return keys;
+		}
+	}
+
+	@Param({"10", "100", "1000", "10000", "100000", "1000000"})
+	public int size;
+
+	@Param
+	public Distribution distribution;
+
+	private int[] keys;
+	private int[] lookups;
+	private int[] absent;
+	private int next;
+
+	private BST<Integer, Integer> bst;
+	private BST<Integer, Integer> otherBst;
+	// Equal to bst but built separately, so that equals cannot short-cut on shared nodes
+	private BST<Integer, Integer> bstCopy;
+	private byte[] serializedBst;
+	private TreeMap<Integer, Integer> treeMap;
+	private TreeMap<Integer, Integer> otherTreeMap;
+	private TreeMap<Integer, Integer> treeMapCopy;
+	private byte[] serializedTreeMap;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		keys = distribution.keys(size, random);
+		// Shifted so that the two trees of a union only partly overlap
+		int[] otherKeys = distribution.keys(size, random);
+		for (int i = 0; i < size; i++) {
+			otherKeys[i] += size / 2;
+		}
+
+		bst = BST.balancedNil();
+		otherBst = BST.balancedNil();
+		bstCopy = BST.balancedNil();
+		treeMap = new TreeMap<>();
+		otherTreeMap = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			bst = bst.insert(keys[i], i);
+			bstCopy = bstCopy.insert(keys[i], i);
+			treeMap.put(keys[i], i);
+			otherBst = otherBst.insert(otherKeys[i], i);
+			otherTreeMap.put(otherKeys[i], i);
+		}
+		treeMapCopy = new TreeMap<>(treeMap);
+		serializedBst = serialize(bst);
+		serializedTreeMap = serialize(treeMap);
+
+		lookups = new int[LOOKUPS];
+		absent = new int[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++) {
+			lookups[i] = keys[random.nextInt(size)];
+			int candidate = random.nextInt();
+			while (treeMap.containsKey(candidate)) {
+				candidate = random.nextInt();
+			}
+			absent[i] = candidate;
+		}
+	}
+
+	private int nextIndex() {
+		next = (next + 1) & (LOOKUPS - 1);
+		return next;
+	}
+
+	@Benchmark
+	public Optional<Integer> bst_find() {
+		return bst.find(lookups[nextIndex()]);
+	}
+
+	@Benchmark
+	public Integer treeMap_get() {
+		return treeMap.get(lookups[nextIndex()]);
+	}
+
+	// A new version with one more entry, the benchmark tree itself is not changed
+	@Benchmark
+	public BST<Integer, Integer> bst_insert() {
+		return bst.insert(absent[nextIndex()], 0);
+	}
+
+	// TreeMap is mutable, so the entry is removed again to keep the map at its size
+	@Benchmark
+	public Integer treeMap_put_and_remove() {
+		int key = absent[nextIndex()];
+		treeMap.put(key, 0);
+		return treeMap.remove(key);
+	}
+
+	@Benchmark
+	public BST<Integer, Integer> bst_delete() {
+		return bst.delete(lookups[nextIndex()]);
+	}
+
+	// Put back afterwards to keep the map at its size
+	@Benchmark
+	public Integer treeMap_remove_and_put() {
+		int key = lookups[nextIndex()];
+		Integer removed = treeMap.remove(key);
+		treeMap.put(key, removed);
+		return removed;
+	}
+
+	@Benchmark
+	public BST<Integer, Integer> bst_build_by_insert() {
+		BST<Integer, Integer> built = BST.balancedNil();
+		for (int i = 0; i < size; i++) {
+			built = built.insert(keys[i], i);
+		}
+		return built;
+	}
+
+	@Benchmark
+	public BST<Integer, Integer> bst_build_with_builder() {
+		BST.Builder<Integer, Integer> builder = BST.<Integer, Integer>balancedNil().asTransient();
+		for (int i = 0; i < size; i++) {
+			builder.insert(keys[i], i);
+		}
+		return builder.persistent();
+	}
+
+	@Benchmark
+	public BST<Integer, Integer> bst_build_fromEntries() {
+		List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			entries.add(new SimpleImmutableEntry<>(keys[i], i));
+		}
+		return BST.fromEntries(entries);
+	}
+
+	@Benchmark
+	public TreeMap<Integer, Integer> treeMap_build() {
+		TreeMap<Integer, Integer> built = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			built.put(keys[i], i);
+		}
+		return built;
+	}
+
+	@Benchmark
+	public BST<Integer, Integer> bst_union() {
+		return BST.union(bst, otherBst);
+	}
+
+	// The persistent union leaves both inputs intact, so TreeMap has to copy one of them
+	@Benchmark
+	public TreeMap<Integer, Integer> treeMap_union() {
+		TreeMap<Integer, Integer> union = new TreeMap<>(otherTreeMap);
+		union.putAll(treeMap);
+		return union;
+	}
+
+	@Benchmark
+	public void bst_iterate(Blackhole blackhole) {
+		for (Map.Entry<Integer, Integer> entry : bst) {
+			blackhole.consume(entry.getValue());
+		}
+	}
+
+	@Benchmark
+	public void treeMap_iterate(Blackhole blackhole) {
+		for (Map.Entry<Integer, Integer> entry : treeMap.entrySet()) {
+			blackhole.consume(entry.getValue());
+		}
+	}
+
+	@Benchmark
+	public List<Integer> bst_keys() {
+		return bst.keys();
+	}
+
+	@Benchmark
+	public List<Integer> treeMap_keys() {
+		return new ArrayList<>(treeMap.keySet());
+	}
+
+	@Benchmark
+	public List<Map.Entry<Integer, Integer>> bst_toList() {
+		return bst.toList();
+	}
+
+	@Benchmark
+	public List<Map.Entry<Integer, Integer>> treeMap_toList() {
+		return new ArrayList<>(treeMap.entrySet());
+	}
+
+	@Benchmark
+	public boolean bst_equals() {
+		return bst.equals(bstCopy);
+	}
+
+	@Benchmark
+	public boolean treeMap_equals() {
+		return treeMap.equals(treeMapCopy);
+	}
+
+	// Cached in every node, so this does not depend on size
+	@Benchmark
+	public int bst_hashCode() {
+		return bst.hashCode();
+	}
+
+	@Benchmark
+	public int treeMap_hashCode() {
+		return treeMap.hashCode();
+	}
+
+	@Benchmark
+	public byte[] bst_serialize() throws IOException {
+		return serialize(bst);
+	}
+
+	@Benchmark
+	public byte[] treeMap_serialize() throws IOException {
+		return serialize(treeMap);
+	}
+
+	@Benchmark
+	public Object bst_deserialize() throws IOException, ClassNotFoundException {
+		return deserialize(serializedBst);
+	}
+
+	@Benchmark
+	public Object treeMap_deserialize() throws IOException, ClassNotFoundException {
+		return deserialize(serializedTreeMap);
+	}
+
+	private static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+}
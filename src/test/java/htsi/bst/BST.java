@@ -3,51 +3,666 @@ package htsi.bst;
 import java.io.*;
 import java.util.AbstractMap.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
 
-public class BST<K extends Comparable<K>, V> implements Serializable {
+/**
+ * Persistent binary search tree, either unbalanced ({@link #nil()}) or AVL-balanced ({@link #balancedNil()}).
+ *
+ * Trees are never changed once built, but their nodes do not use final fields so that a {@link Builder} can update
+ * nodes it owns in place. A tree passed to another thread must therefore be published safely,
+ * e.g. through a volatile field, an {@link java.util.concurrent.atomic.AtomicReference}, a concurrent collection,
+ * or by starting or joining a task. {@link ConcurrentBSTMap} and the parallel set operations do so.
+ * A tree read through a data race may appear partly initialized.
+ *
+ * A node holds key and value inline and takes 48 bytes with compressed oops, or about 44 bytes per entry
+ * measured as retained heap of a 1M entry tree. Storing a Map.Entry per node took about 60.
+ * The cached hash, the Builder's owner and the validated flag cost 8 of these bytes.
+ * The two booleans share a padding slot, so only dropping the hash or the owner would shrink the node further,
+ * at the price of an O(n) hashCode or of copying the search path on every Builder update.
+ */
+public class BST<K extends Comparable<K>, V> implements Iterable<Map.Entry<K, V>>, Serializable {
 
-	private static final BST NIL = new BST<>();
+	private static final BST<?, ?> NIL = new BST<>(false);
+	private static final BST<?, ?> BALANCED_NIL = new BST<>(true);
 
 	//	nil :: BST k v
 	public static <K extends Comparable<K>, V> BST<K, V> nil() {
-		//noinspection unchecked
-		return BST.NIL;
+		return empty(false);
+	}
+
+	/**
+	 * An empty tree in self-balancing mode.
+	 * All trees derived from it by insert and delete are kept AVL-balanced
+	 * so that their height stays logarithmic whatever the insertion order.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> balancedNil() {
+		return empty(true);
+	}
+
+	// The empty trees hold no keys or values, so one instance per mode serves all type arguments
+	@SuppressWarnings("unchecked")
+	private static <K extends Comparable<K>, V> BST<K, V> empty(boolean balanced) {
+		return (BST<K, V>) (balanced ? BALANCED_NIL : NIL);
+	}
+
+	// Stacks and paths of nodes, generic arrays cannot be created directly
+	@SuppressWarnings("unchecked")
+	private static <K extends Comparable<K>, V> BST<K, V>[] newArray(int length) {
+		return (BST<K, V>[]) new BST<?, ?>[length];
+	}
+
+	/**
+	 * Build a perfectly balanced, self-balancing tree from entries in strictly ascending key order in O(n).
+	 *
+	 * @throws IllegalArgumentException if keys are not strictly ascending
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> fromSorted(Iterator<? extends Map.Entry<K, V>> entries) {
+		List<Map.Entry<K, V>> sorted = new ArrayList<>();
+		while (entries.hasNext()) {
+			Map.Entry<K, V> next = entries.next();
+			if (!sorted.isEmpty() && compare(sorted.get(sorted.size() - 1).getKey(), next.getKey()) >= 0) {
+				throw new IllegalArgumentException(String.format("Key %s is not larger than its predecessor", next.getKey()));
+			}
+			sorted.add(next);
+		}
+		return BST.<K, V>balancedNil().build(sorted, 0, sorted.size());
+	}
+
+	/**
+	 * Build a perfectly balanced, self-balancing tree from entries in any order in O(n log n).
+	 * If a key occurs more than once the last entry wins.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> fromEntries(Iterable<? extends Map.Entry<K, V>> entries) {
+		List<Map.Entry<K, V>> sorted = new ArrayList<>();
+		for (Map.Entry<K, V> entry : entries) {
+			sorted.add(entry);
+		}
+		// List.sort is stable, so entries with equal keys keep their original order
+		sorted.sort(Map.Entry.comparingByKey());
+		List<Map.Entry<K, V>> unique = new ArrayList<>(sorted.size());
+		for (int i = 0; i < sorted.size(); i++) {
+			boolean lastOfKey = i == sorted.size() - 1
+										|| compare(sorted.get(i).getKey(), sorted.get(i + 1).getKey()) != 0;
+			if (lastOfKey) {
+				unique.add(sorted.get(i));
+			}
+		}
+		return BST.<K, V>balancedNil().build(unique, 0, unique.size());
+	}
+
+	private BST<K, V> build(List<Map.Entry<K, V>> sorted, int from, int to) {
+		if (from >= to) {
+			return empty();
+		}
+		int middle = (from + to) >>> 1;
+		Map.Entry<K, V> entry = sorted.get(middle);
+		return branch(build(sorted, from, middle), entry.getKey(), entry.getValue(), build(sorted, middle + 1, to));
 	}
 
 	//	union :: Ord k ⇒ BST k v → BST k v → BST k v
 	public static <K extends Comparable<K>, V> BST<K, V> union(BST<K, V> bst1, BST<K, V> bst2) {
-		// bug(8)
-		// BST<K, V> union = bst1;
-		// for (Map.Entry<K, V> entry : bst2.toList()) {
-		// 	union = union.insert(entry);
-		// }
-		BST<K, V> union = bst2;
-		for (Map.Entry<K, V> entry : bst1.toList()) {
-			union = union.insert(entry);
+		return merge(SetOperation.UNION, bst1, bst2, null);
+	}
+
+	// All set operations return a tree in the mode of bst1.
+	// If bst2 has the other mode, it is converted first in O(n).
+
+	/**
+	 * Entries of both trees. If a key is present in both, its value is {@code mergeFn(value1, value2)}.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> unionWith(
+			BST<K, V> bst1, BST<K, V> bst2,
+			BiFunction<? super V, ? super V, ? extends V> mergeFn
+	) {
+		return merge(SetOperation.UNION_WITH, bst1, bst2, mergeFn);
+	}
+
+	/**
+	 * Entries of {@code bst1} whose keys are also present in {@code bst2}.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> intersection(BST<K, V> bst1, BST<K, V> bst2) {
+		return merge(SetOperation.INTERSECTION, bst1, bst2, null);
+	}
+
+	/**
+	 * Entries of {@code bst1} whose keys are not present in {@code bst2}.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> difference(BST<K, V> bst1, BST<K, V> bst2) {
+		return merge(SetOperation.DIFFERENCE, bst1, bst2, null);
+	}
+
+	/**
+	 * Same result as {@link #union(BST, BST)}, computed on the common fork-join pool, see {@link MergeTask}.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> parallelUnion(BST<K, V> bst1, BST<K, V> bst2) {
+		return ForkJoinPool.commonPool().invoke(new MergeTask<>(SetOperation.UNION, bst1, bst2.toMode(bst1.balanced), null));
+	}
+
+	/**
+	 * Same result as {@link #intersection(BST, BST)}, computed on the common fork-join pool, see {@link MergeTask}.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> parallelIntersection(BST<K, V> bst1, BST<K, V> bst2) {
+		return ForkJoinPool.commonPool().invoke(new MergeTask<>(SetOperation.INTERSECTION, bst1, bst2.toMode(bst1.balanced), null));
+	}
+
+	/**
+	 * Same result as {@link #difference(BST, BST)}, computed on the common fork-join pool, see {@link MergeTask}.
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> parallelDifference(BST<K, V> bst1, BST<K, V> bst2) {
+		return ForkJoinPool.commonPool().invoke(new MergeTask<>(SetOperation.DIFFERENCE, bst1, bst2.toMode(bst1.balanced), null));
+	}
+
+	// All set operations split bst2 at the root of bst1, merge both halves and combine them with the root:
+	// merge(bst1, bst2) = combine(merge(bst1.left, split.left), bst1.root, merge(bst1.right, split.right))
+	// Where combine keeps the root of bst1 and its subtrees are unchanged, bst1 itself is reused.
+	private enum SetOperation {
+		UNION, UNION_WITH, INTERSECTION, DIFFERENCE;
+
+		// Returns null if the result requires splitting bst2 at the root of bst1
+		<K extends Comparable<K>, V> BST<K, V> withoutSplit(BST<K, V> bst1, BST<K, V> bst2) {
+			if (this == UNION || this == UNION_WITH) {
+				return unionWithoutSplit(bst1, bst2);
+			}
+			boolean disjoint = bst1.isEmpty() || bst2.isEmpty()
+									   || compare(bst1.maxNode().key, bst2.minNode().key) < 0
+									   || compare(bst1.minNode().key, bst2.maxNode().key) > 0;
+			if (!disjoint) {
+				return null;
+			}
+			return this == INTERSECTION ? bst1.empty() : bst1;
+		}
+
+		// found is the node of bst2 with the root key of bst1, or a leaf if there is none
+		// mergeFn is only used by UNION_WITH
+		<K extends Comparable<K>, V> BST<K, V> combine(
+				BST<K, V> bst1, BST<K, V> bst2, BST<K, V> found, BST<K, V> left, BST<K, V> right,
+				BiFunction<? super V, ? super V, ? extends V> mergeFn
+		) {
+			switch (this) {
+				case UNION:
+					// bug(8)
+					// V value = bst2.find(bst1.key).orElse(bst1.value);
+					V value = bst1.value;
+					return rejoin(bst1, left, value, right);
+				case UNION_WITH:
+					V merged = found.isLeaf() ? bst1.value : mergeFn.apply(bst1.value, found.value);
+					return rejoin(bst1, left, merged, right);
+				case INTERSECTION:
+					return found.isLeaf() ? concat(left, right) : rejoin(bst1, left, bst1.value, right);
+				default:
+					return found.isLeaf() ? rejoin(bst1, left, bst1.value, right) : concat(left, right);
+			}
 		}
-		return union;
 	}
 
-	private final BST<K, V> left;
-	final Map.Entry<K, V> entry;
-	private final BST<K, V> right;
+	// Same as joining with the root key of bst1, but returns bst1 itself if nothing changed
+	private static <K extends Comparable<K>, V> BST<K, V> rejoin(BST<K, V> bst1, BST<K, V> left, V value, BST<K, V> right) {
+		if (left == bst1.getLeft() && right == bst1.getRight() && value == bst1.value) {
+			return bst1;
+		}
+		return join(left, bst1.key, value, right);
+	}
 
-	private BST() {
-		this(nil(), null, nil());
+	private static <K extends Comparable<K>, V> BST<K, V> merge(
+			SetOperation operation, BST<K, V> bst1, BST<K, V> bst2,
+			BiFunction<? super V, ? super V, ? extends V> mergeFn
+	) {
+		// The divide and conquer recursion runs on an explicit stack of frames
+		// so that degenerate trees cannot overflow the Java stack
+		Deque<MergeFrame<K, V>> frames = new ArrayDeque<>();
+		frames.push(new MergeFrame<>(bst1, bst2.toMode(bst1.balanced)));
+		BST<K, V> result = null;
+		while (!frames.isEmpty()) {
+			MergeFrame<K, V> frame = frames.peek();
+			if (frame.stage == 0) {
+				BST<K, V> trivial = operation.withoutSplit(frame.bst1, frame.bst2);
+				if (trivial != null) {
+					frames.pop();
+					result = trivial;
+					continue;
+				}
+				Split<K, V> split = frame.bst2.split(frame.bst1.key);
+				frame.found = split.found;
+				frame.splitRight = split.right();
+				frame.stage = 1;
+				frames.push(new MergeFrame<>(frame.bst1.getLeft(), split.left()));
+			} else if (frame.stage == 1) {
+				frame.leftResult = result;
+				frame.stage = 2;
+				frames.push(new MergeFrame<>(frame.bst1.getRight(), frame.splitRight));
+			} else {
+				frames.pop();
+				result = operation.combine(frame.bst1, frame.bst2, frame.found, frame.leftResult, result, mergeFn);
+			}
+		}
+		return result;
 	}
 
-	private BST(BST<K, V> left, Map.Entry<K, V> entry, BST<K, V> right) {
+	// Returns null if the union requires splitting bst2 at the root of bst1
+	private static <K extends Comparable<K>, V> BST<K, V> unionWithoutSplit(BST<K, V> bst1, BST<K, V> bst2) {
+		if (bst2.isEmpty()) {
+			return bst1;
+		}
+		if (bst1.isEmpty()) {
+			return bst2;
+		}
+		if (compare(bst1.maxNode().key, bst2.minNode().key) < 0) {
+			return bst1.appendRightmost(bst2);
+		}
+		if (compare(bst1.minNode().key, bst2.maxNode().key) > 0) {
+			return bst1.appendLeftmost(bst2);
+		}
+		return null;
+	}
+
+	// Joins two trees where all keys in left are smaller than all keys in right
+	private static <K extends Comparable<K>, V> BST<K, V> concat(BST<K, V> left, BST<K, V> right) {
+		if (left.isEmpty()) {
+			return right;
+		}
+		if (right.isEmpty()) {
+			return left;
+		}
+		BST<K, V> min = right.minNode();
+		return join(left, min.key, min.value, right.deleteMin(null, new Path<>(right.height)));
+	}
+
+	private static class MergeFrame<K extends Comparable<K>, V> {
+		private final BST<K, V> bst1;
+		private final BST<K, V> bst2;
+		private int stage = 0;
+		private BST<K, V> found;
+		private BST<K, V> splitRight;
+		private BST<K, V> leftResult;
+
+		private MergeFrame(BST<K, V> bst1, BST<K, V> bst2) {
+			this.bst1 = bst1;
+			this.bst2 = bst2;
+		}
+	}
+
+	// Merges the two halves after a split as independent fork-join tasks.
+	// Small inputs and tall subtrees, whose task recursion could overflow the stack, are merged sequentially.
+	// Since the decomposition is the same, the result is structurally equal to the sequential one.
+	private static class MergeTask<K extends Comparable<K>, V> extends RecursiveTask<BST<K, V>> {
+		private static final long serialVersionUID = 1L;
+		private static final int SEQUENTIAL_CUTOFF = 4096;
+		private static final int MAX_PARALLEL_HEIGHT = 128;
+
+		private final SetOperation operation;
+		private final BST<K, V> bst1;
+		private final BST<K, V> bst2;
+		private final BiFunction<? super V, ? super V, ? extends V> mergeFn;
+
+		private MergeTask(
+				SetOperation operation, BST<K, V> bst1, BST<K, V> bst2,
+				BiFunction<? super V, ? super V, ? extends V> mergeFn
+		) {
+			this.operation = operation;
+			this.bst1 = bst1;
+			this.bst2 = bst2;
+			this.mergeFn = mergeFn;
+		}
+
+		@Override
+		protected BST<K, V> compute() {
+			if (bst1.size + bst2.size <= SEQUENTIAL_CUTOFF || bst1.height > MAX_PARALLEL_HEIGHT) {
+				return merge(operation, bst1, bst2, mergeFn);
+			}
+			BST<K, V> trivial = operation.withoutSplit(bst1, bst2);
+			if (trivial != null) {
+				return trivial;
+			}
+			Split<K, V> split = bst2.split(bst1.key);
+			MergeTask<K, V> leftTask = new MergeTask<>(operation, bst1.getLeft(), split.left(), mergeFn);
+			leftTask.fork();
+			BST<K, V> right = new MergeTask<>(operation, bst1.getRight(), split.right(), mergeFn).compute();
+			BST<K, V> left = leftTask.join();
+			return operation.combine(bst1, bst2, split.found, left, right, mergeFn);
+		}
+	}
+
+	/**
+	 * Combine two trees and an entry whose key is larger than all keys in {@code left}
+	 * and smaller than all keys in {@code right}. The precondition is not checked.
+	 *
+	 * The result has the mode of {@code left}. If {@code right} has the other mode, it is converted first in O(n).
+	 * In self-balancing mode the result is rebalanced along one spine in O(|height(left) - height(right)|).
+	 */
+	public static <K extends Comparable<K>, V> BST<K, V> join(BST<K, V> left, Map.Entry<K, V> entry, BST<K, V> right) {
+		return left.joinSameMode(left, entry.getKey(), entry.getValue(), right.toMode(left.balanced));
+	}
+
+	// For trees of the same mode. Empty subtrees of leaves are always unbalanced, so the mode comes from either tree.
+	private static <K extends Comparable<K>, V> BST<K, V> join(BST<K, V> left, K key, V value, BST<K, V> right) {
+		BST<K, V> mode = left.balanced ? left : right;
+		return mode.joinSameMode(left, key, value, right);
+	}
+
+	// Rebalancing relies on every subtree of a self-balancing tree being AVL-balanced,
+	// so trees are never combined with a tree of the other mode without converting it.
+	private BST<K, V> toMode(boolean balanced) {
+		if (this.balanced == balanced) {
+			return this;
+		}
+		if (isEmpty()) {
+			return balanced ? balancedNil() : nil();
+		}
+		return balanced ? fromSorted(iterator()) : unbalancedCopy();
+	}
+
+	// Recursion depth is the height, which is logarithmic since this tree is balanced
+	private BST<K, V> unbalancedCopy() {
+		if (isLeaf()) {
+			return nil();
+		}
+		return new BST<>(getLeft().unbalancedCopy(), key, value, getRight().unbalancedCopy(), false);
+	}
+
+	private BST<K, V> joinSameMode(BST<K, V> left, K key, V value, BST<K, V> right) {
+		if (!balanced) {
+			return branch(left, key, value, right);
+		}
+		if (left.height > right.height + 1) {
+			return balance(left.getLeft(), left.key, left.value, joinSameMode(left.getRight(), key, value, right));
+		}
+		if (right.height > left.height + 1) {
+			return balance(joinSameMode(left, key, value, right.getLeft()), right.key, right.value, right.getRight());
+		}
+		return branch(left, key, value, right);
+	}
+
+	// Attach smaller keys to this tree. Mirrors union's recursion when all keys of other are smaller.
+	private BST<K, V> appendLeftmost(BST<K, V> smaller) {
+		if (balanced) {
+			BST<K, V> max = smaller.maxNode();
+			return joinSameMode(smaller.deleteMax(), max.key, max.value, this);
+		}
+		Path<K, V> path = new Path<>(height);
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			path.push(current, true);
+			current = current.getLeft();
+		}
+		return rebuild(path, smaller, null);
+	}
+
+	// Attach larger keys to this tree. Mirrors union's recursion when all keys of other are larger.
+	private BST<K, V> appendRightmost(BST<K, V> larger) {
+		if (balanced) {
+			BST<K, V> min = larger.minNode();
+			return joinSameMode(this, min.key, min.value, larger.deleteMin(null, new Path<>(larger.height)));
+		}
+		Path<K, V> path = new Path<>(height);
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			path.push(current, false);
+			current = current.getRight();
+		}
+		return rebuild(path, larger, null);
+	}
+
+	/**
+	 * A builder that starts with the entries of this tree, see {@link Builder}.
+	 */
+	public Builder<K, V> asTransient() {
+		return new Builder<>(this);
+	}
+
+	/**
+	 * Batched, single-threaded mutation of a tree.
+	 *
+	 * The builder updates the nodes it created itself in place instead of copying the search path,
+	 * so a bulk load allocates about one node per entry. Nodes shared with persistent trees are copied on first write.
+	 * The resulting tree has exactly the shape that the same sequence of persistent insert and delete calls would produce.
+	 * {@link #persistent()} returns the tree in O(1) and invalidates the builder.
+	 */
+	public static class Builder<K extends Comparable<K>, V> {
+		private BST<K, V> root;
+		private Object edit = new Object();
+		// Reused by every update instead of allocating search paths per entry.
+		// A delete needs a second one for the successor it moves up.
+		private final Path<K, V> path = new Path<>(0);
+		private final Path<K, V> innerPath = new Path<>(0);
+
+		private Builder(BST<K, V> root) {
+			this.root = root;
+		}
+
+		public Builder<K, V> insert(K key, V value) {
+			checkEditable();
+			root = root.insert(key, value, null, edit, path.reset(root.height));
+			return this;
+		}
+
+		public Builder<K, V> delete(K key) {
+			checkEditable();
+			root = root.delete(key, edit, path.reset(root.height), innerPath);
+			return this;
+		}
+
+		public Optional<V> find(K key) {
+			checkEditable();
+			return root.find(key);
+		}
+
+		public int size() {
+			checkEditable();
+			return root.size;
+		}
+
+		/**
+		 * The built tree. The builder can no longer be used afterwards.
+		 */
+		public BST<K, V> persistent() {
+			checkEditable();
+			edit = null;
+			return root;
+		}
+
+		private void checkEditable() {
+			if (edit == null) {
+				throw new IllegalStateException("Builder has already been turned into a persistent tree");
+			}
+		}
+	}
+
+	/**
+	 * Result of {@linkplain #split(Comparable) splitting} a tree at a key.
+	 */
+	public static class Split<K extends Comparable<K>, V> {
+		private final BST<K, V> left;
+		private final BST<K, V> found;
+		private final BST<K, V> right;
+
+		private Split(BST<K, V> left, BST<K, V> found, BST<K, V> right) {
+			this.left = left;
+			this.found = found;
+			this.right = right;
+		}
+
+		// All entries with a smaller key
+		public BST<K, V> left() {
+			return left;
+		}
+
+		// The entry with exactly the split key if present
+		public Optional<Map.Entry<K, V>> entry() {
+			return found.isLeaf() ? Optional.empty() : Optional.of(found.entry());
+		}
+
+		// All entries with a larger key
+		public BST<K, V> right() {
+			return right;
+		}
+	}
+
+	// Nodes are immutable once they are part of a persistent tree.
+	// Only a Builder mutates the fields of nodes it owns, see node(..).
+	// The fields are not final for that reason, so Java gives no final-field guarantee for trees shared across threads.
+	// A tree must be handed to another thread through a happens-before edge, see the class comment.
+	private BST<K, V> left;
+	private K key;
+	private V value;
+	private BST<K, V> right;
+	private int size;
+	private int height;
+	// Structural hash, computed once per node version
+	private int hash;
+	private final boolean balanced;
+	// Edit token of the Builder that may still update this node in place
+	private Object owner;
+	// Set once BSTUtils has checked the search tree property of this subtree.
+	// Not volatile: a thread that misses the flag just checks again.
+	private boolean validated;
+
+	private BST(boolean balanced) {
+		this.balanced = balanced;
+	}
+
+	private BST(BST<K, V> left, K key, V value, BST<K, V> right, boolean balanced) {
 		this.left = left;
-		this.entry = entry;
+		this.key = key;
+		this.value = value;
 		this.right = right;
+		this.balanced = balanced;
+		updateDerivedFields();
+		BSTMetrics.allocation();
+	}
+
+	// All key comparisons of tree operations go through here to be counted by BSTMetrics
+	private static <K extends Comparable<K>> int compare(K key1, K key2) {
+		BSTMetrics.comparison();
+		return key1.compareTo(key2);
+	}
+
+	private void updateDerivedFields() {
+		this.size = 1 + left.size + right.size;
+		this.height = 1 + Math.max(left.height, right.height);
+		int entryHash = Objects.hashCode(key) ^ Objects.hashCode(value);
+		this.hash = 31 * (31 * left.hash + entryHash) + right.hash;
+	}
+
+	private BST<K, V> branch(BST<K, V> left, K key, V value, BST<K, V> right) {
+		return new BST<>(left, key, value, right, balanced);
+	}
+
+	// Updates reuse in place if it is owned by edit, otherwise creates a new node owned by edit.
+	// Persistent operations pass a null edit and therefore always copy.
+	private BST<K, V> node(BST<K, V> reuse, Object edit, BST<K, V> left, K key, V value, BST<K, V> right) {
+		if (edit != null && reuse != null && reuse.owner == edit) {
+			reuse.left = left;
+			reuse.key = key;
+			reuse.value = value;
+			reuse.right = right;
+			reuse.updateDerivedFields();
+			reuse.validated = false;
+			return reuse;
+		}
+		BST<K, V> node = branch(left, key, value, right);
+		node.owner = edit;
+		return node;
+	}
+
+	private BST<K, V> balance(BST<K, V> left, K key, V value, BST<K, V> right) {
+		return balance(null, null, left, key, value, right);
+	}
+
+	// Rebuilds a node whose subtrees' heights differ by at most 2 with AVL rotations.
+	// The rebuilt node (reuse) and rotated children are updated in place if edit owns them.
+	private BST<K, V> balance(BST<K, V> reuse, Object edit, BST<K, V> left, K key, V value, BST<K, V> right) {
+		if (left.height > right.height + 1) {
+			BST<K, V> leftLeft = left.getLeft();
+			BST<K, V> leftRight = left.getRight();
+			if (leftLeft.height >= leftRight.height) {
+				BST<K, V> newRight = node(reuse, edit, leftRight, key, value, right);
+				return node(left, edit, leftLeft, left.key, left.value, newRight);
+			}
+			BST<K, V> pivot = leftRight;
+			BST<K, V> pivotLeft = pivot.getLeft();
+			BST<K, V> pivotRight = pivot.getRight();
+			BST<K, V> newLeft = node(left, edit, leftLeft, left.key, left.value, pivotLeft);
+			BST<K, V> newRight = node(reuse, edit, pivotRight, key, value, right);
+			return node(pivot, edit, newLeft, pivot.key, pivot.value, newRight);
+		}
+		if (right.height > left.height + 1) {
+			BST<K, V> rightLeft = right.getLeft();
+			BST<K, V> rightRight = right.getRight();
+			if (rightRight.height >= rightLeft.height) {
+				BST<K, V> newLeft = node(reuse, edit, left, key, value, rightLeft);
+				return node(right, edit, newLeft, right.key, right.value, rightRight);
+			}
+			BST<K, V> pivot = rightLeft;
+			BST<K, V> pivotLeft = pivot.getLeft();
+			BST<K, V> pivotRight = pivot.getRight();
+			BST<K, V> newLeft = node(reuse, edit, left, key, value, pivotLeft);
+			BST<K, V> newRight = node(right, edit, pivotRight, right.key, right.value, rightRight);
+			return node(pivot, edit, newLeft, pivot.key, pivot.value, newRight);
+		}
+		return node(reuse, edit, left, key, value, right);
+	}
+
+	// Nodes visited on the way down from the root and the direction taken at each of them
+	private static class Path<K extends Comparable<K>, V> {
+		private BST<K, V>[] nodes;
+		private boolean[] wentLeft;
+		private int depth = 0;
+
+		private Path(int maxDepth) {
+			this.nodes = newArray(maxDepth);
+			this.wentLeft = new boolean[maxDepth];
+		}
+
+		// Empties the path for reuse, growing it if a tree of the given height does not fit
+		private Path<K, V> reset(int maxDepth) {
+			if (nodes.length < maxDepth) {
+				int capacity = Math.max(maxDepth, 2 * nodes.length);
+				nodes = newArray(capacity);
+				wentLeft = new boolean[capacity];
+			}
+			depth = 0;
+			return this;
+		}
+
+		private void push(BST<K, V> node, boolean left) {
+			nodes[depth] = node;
+			wentLeft[depth] = left;
+			depth++;
+		}
+	}
+
+	// Copies the path bottom-up with the new subtree at its end, rebalancing in self-balancing mode.
+	// Path nodes owned by edit are updated in place instead of being copied.
+	private BST<K, V> rebuild(Path<K, V> path, BST<K, V> subtree, Object edit) {
+		BST<K, V> current = subtree;
+		for (int i = path.depth - 1; i >= 0; i--) {
+			BST<K, V> node = path.nodes[i];
+			BST<K, V> left = path.wentLeft[i] ? current : node.getLeft();
+			BST<K, V> right = path.wentLeft[i] ? node.getRight() : current;
+			current = balanced
+							  ? balance(node, edit, left, node.key, node.value, right)
+							  : node(node, edit, left, node.key, node.value, right);
+		}
+		return current;
+	}
+
+	private BST<K, V> empty() {
+		return empty(balanced);
 	}
 
 	public K key() {
-		return entry == null ? null : entry.getKey();
+		return key;
 	}
 
 	public V value() {
-		return entry == null ? null : entry.getValue();
+		return value;
+	}
+
+	// Entries are only created on demand, nodes store key and value inline
+	private Map.Entry<K, V> entry() {
+		return new SimpleImmutableEntry<>(key, value);
 	}
 
 	public Optional<BST<K, V>> left() {
@@ -63,161 +678,761 @@ public class BST<K extends Comparable<K>, V> implements Serializable {
 	}
 
 	public boolean isLeaf() {
-		return entry == null;
+		return size == 0;
 	}
 
 	public boolean isEmpty() {
-		return entry == null;
+		return size == 0;
+	}
+
+	boolean isValidated() {
+		return validated;
+	}
+
+	void markValidated() {
+		validated = true;
+	}
+
+	public boolean isSelfBalancing() {
+		return balanced;
+	}
+
+	public int height() {
+		return height;
 	}
 
 	public int size() {
-		if (isLeaf()) {
+		return size;
+	}
+
+	/**
+	 * Number of keys strictly smaller than {@code key}.
+	 */
+	public int rank(K key) {
+		int rank = 0;
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			int comparison = compare(current.key, key);
+			if (comparison > 0) {
+				current = current.getLeft();
+			} else {
+				rank += current.getLeft().size;
+				if (comparison == 0) {
+					return rank;
+				}
+				rank += 1;
+				current = current.getRight();
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * The entry with the {@code index}-th smallest key, starting at 0.
+	 *
+	 * @throws IndexOutOfBoundsException if index is negative or not smaller than size()
+	 */
+	public Map.Entry<K, V> select(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("Index %s out of bounds for size %s", index, size));
+		}
+		BST<K, V> current = this;
+		while (true) {
+			int leftSize = current.getLeft().size;
+			if (index < leftSize) {
+				current = current.getLeft();
+			} else if (index > leftSize) {
+				index -= leftSize + 1;
+				current = current.getRight();
+			} else {
+				return current.entry();
+			}
+		}
+	}
+
+	/**
+	 * Number of keys k with {@code lo <= k < hi}.
+	 */
+	public int countBetween(K lo, K hi) {
+		if (compare(lo, hi) >= 0) {
 			return 0;
 		}
-		return 1 + getLeft().size() + getRight().size();
+		return rank(hi) - rank(lo);
 	}
 
-	//	find ::Ord k ⇒k →BST k v →Maybe v
-	public Optional<V> find(K key) {
-		if (isLeaf()) {
-			return Optional.empty();
+	public Optional<Map.Entry<K, V>> first() {
+		return isLeaf() ? Optional.empty() : Optional.of(minNode().entry());
+	}
+
+	public Optional<Map.Entry<K, V>> last() {
+		return isLeaf() ? Optional.empty() : Optional.of(maxNode().entry());
+	}
+
+	/**
+	 * The entry with the greatest key less than or equal to {@code key}.
+	 */
+	public Optional<Map.Entry<K, V>> floor(K key) {
+		return below(key, true);
+	}
+
+	/**
+	 * The entry with the greatest key strictly less than {@code key}.
+	 */
+	public Optional<Map.Entry<K, V>> lower(K key) {
+		return below(key, false);
+	}
+
+	/**
+	 * The entry with the least key greater than or equal to {@code key}.
+	 */
+	public Optional<Map.Entry<K, V>> ceiling(K key) {
+		return above(key, true);
+	}
+
+	/**
+	 * The entry with the least key strictly greater than {@code key}.
+	 */
+	public Optional<Map.Entry<K, V>> higher(K key) {
+		return above(key, false);
+	}
+
+	private Optional<Map.Entry<K, V>> below(K key, boolean inclusive) {
+		BST<K, V> candidate = null;
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			int comparison = compare(current.key, key);
+			if (comparison == 0 && inclusive) {
+				return Optional.of(current.entry());
+			}
+			if (comparison < 0) {
+				candidate = current;
+				current = current.getRight();
+			} else {
+				current = current.getLeft();
+			}
 		}
-		if (entry.getKey().compareTo(key) > 0) {
-			return getLeft().find(key);
+		return candidate == null ? Optional.empty() : Optional.of(candidate.entry());
+	}
+
+	private Optional<Map.Entry<K, V>> above(K key, boolean inclusive) {
+		BST<K, V> candidate = null;
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			int comparison = compare(current.key, key);
+			if (comparison == 0 && inclusive) {
+				return Optional.of(current.entry());
+			}
+			if (comparison > 0) {
+				candidate = current;
+				current = current.getLeft();
+			} else {
+				current = current.getRight();
+			}
 		}
-		if (entry.getKey().compareTo(key) < 0) {
-			return getRight().find(key);
+		return candidate == null ? Optional.empty() : Optional.of(candidate.entry());
+	}
+
+	/**
+	 * Entries with {@code lo <= key < hi} in ascending order.
+	 * The iterator is lazy: positioning takes O(log n) in a balanced tree and every entry is then produced in amortized O(1).
+	 */
+	public Iterator<Map.Entry<K, V>> range(K lo, K hi) {
+		int from = rank(lo);
+		int to = compare(lo, hi) < 0 ? rank(hi) : from;
+		return Spliterators.iterator(new EntrySpliterator<>(this, from, to));
+	}
+
+	/**
+	 * Entries with {@code key < hi} in ascending order, see {@link #range(Comparable, Comparable)}.
+	 */
+	public Iterator<Map.Entry<K, V>> headRange(K hi) {
+		return Spliterators.iterator(new EntrySpliterator<>(this, 0, rank(hi)));
+	}
+
+	/**
+	 * Entries with {@code lo <= key} in ascending order, see {@link #range(Comparable, Comparable)}.
+	 */
+	public Iterator<Map.Entry<K, V>> tailRange(K lo) {
+		return Spliterators.iterator(new EntrySpliterator<>(this, rank(lo), size));
+	}
+
+	/**
+	 * A tree with all entries where {@code lo <= key < hi}.
+	 * Subtrees that lie completely inside the range are shared with this tree,
+	 * only the nodes along the two boundary paths are copied.
+	 */
+	public BST<K, V> subTree(K lo, K hi) {
+		if (compare(lo, hi) >= 0) {
+			return empty();
 		}
-		return Optional.of(entry.getValue());
+		Split<K, V> atLo = split(lo);
+		BST<K, V> fromLo = atLo.found.isLeaf()
+								   ? atLo.right
+								   : joinSameMode(empty(), atLo.found.key, atLo.found.value, atLo.right);
+		return fromLo.split(hi).left;
 	}
 
-	//	insert :: Ord k ⇒ k → v → BST k v → BST k v
-	public BST<K, V> insert(K key, V value) {
-		SimpleImmutableEntry<K, V> newEntry = new SimpleImmutableEntry<>(key, value);
-		return insert(newEntry);
+	//	find ::Ord k ⇒k →BST k v →Maybe v
+	public Optional<V> find(K key) {
+		BST<K, V> current = this;
+		int depth = 0;
+		while (!current.isLeaf()) {
+			depth++;
+			int comparison = compare(current.key, key);
+			if (comparison == 0) {
+				BSTMetrics.find(depth);
+				return Optional.of(current.value);
+			}
+			current = comparison > 0 ? current.getLeft() : current.getRight();
+		}
+		BSTMetrics.find(depth);
+		return Optional.empty();
 	}
 
-	@SuppressWarnings("unchecked")
-	private BST<K, V> insert(Map.Entry<K, V> newEntry) {
-		BST<K, V> branch = new BST<>(NIL, newEntry, NIL);
-		return insert(branch);
+	//	insert :: Ord k ⇒ k → v → BST k v → BST k v
+	public BST<K, V> insert(K key, V value) {
+		return insert(key, value, null, null, new Path<>(height));
 	}
 
-	private BST<K, V> insert(BST<K, V> branch) {
+	// Inserts a new leaf with key and value, or the given subtree whose root has that key and value.
+	// path must be empty and fit the height of this tree.
+	private BST<K, V> insert(K key, V value, BST<K, V> subtree, Object edit, Path<K, V> path) {
+		BST<K, V> branch = subtree != null ? subtree : node(null, edit, empty(), key, value, empty());
 		// bug(1):
 		// return branch;
-		if (isLeaf()) {
-			return branch;
-		}
-		if (this.entry.getKey().compareTo(branch.entry.getKey()) > 0) {
-			return new BST<>(getLeft().insert(branch), this.entry, right);
-		}
-		if (this.entry.getKey().compareTo(branch.entry.getKey()) < 0) {
-			return new BST<>(left, this.entry, getRight().insert(branch));
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			int comparison = compare(current.key, key);
+			if (comparison == 0) {
+				// bug(2):
+				// path.push(current, false);
+				// current = current.getRight();
+				// continue;
+				// bug(3):
+				// return this;
+				return rebuild(path, node(current, edit, current.getLeft(), key, value, current.getRight()), edit);
+			}
+			path.push(current, comparison > 0);
+			current = comparison > 0 ? current.getLeft() : current.getRight();
 		}
-		// bug(2):
-		// return new BST<>(left, entry, getRight().insert(branch));
-		// bug(3):
-		// return this;
-		return new BST<>(left, branch.entry, right);
+		return rebuild(path, branch, edit);
 	}
 
 	private BST<K, V> getRight() {
-		return this.right == null ? NIL : this.right;
+		return this.right == null ? nil() : this.right;
 	}
 
 	private BST<K, V> getLeft() {
-		return this.left == null ? NIL : this.left;
+		return this.left == null ? nil() : this.left;
 	}
 
 	//	delete::Ord k ⇒k →BST k v →BST k v
 	public BST<K, V> delete(K key) {
-		if (isLeaf()) {
-			return this;
-		}
-		// bug(5)
-		// if (entry.getKey().compareTo(key) < 0) {
-		if (entry.getKey().compareTo(key) > 0) {
-			return new BST<>(getLeft().delete(key), entry, right);
-		}
-		// bug(5)
-		// if (entry.getKey().compareTo(key) > 0) {
-		if (entry.getKey().compareTo(key) < 0) {
-			return new BST<>(left, entry, getRight().delete(key));
+		return delete(key, null, new Path<>(height), new Path<>(height));
+	}
+
+	// path must be empty, both paths must fit the height of this tree. innerPath is used below the deleted node.
+	private BST<K, V> delete(K key, Object edit, Path<K, V> path, Path<K, V> innerPath) {
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			int comparison = compare(current.key, key);
+			if (comparison == 0) {
+				BST<K, V> replacement = current.withoutRoot(edit, innerPath);
+				// bug(4)
+				// return replacement;
+				return rebuild(path, replacement, edit);
+			}
+			// bug(5)
+			// boolean goLeft = comparison < 0;
+			boolean goLeft = comparison > 0;
+			path.push(current, goLeft);
+			current = goLeft ? current.getLeft() : current.getRight();
 		}
+		return this;
+	}
+
+	// The subtree that replaces this node when its entry is deleted
+	private BST<K, V> withoutRoot(Object edit, Path<K, V> path) {
 		if (getLeft().isLeaf()) {
-			return right;
+			return getRight();
 		}
 		if (getRight().isLeaf()) {
-			return left;
+			return getLeft();
+		}
+		if (balanced) {
+			BST<K, V> successor = getRight().minNode();
+			K successorKey = successor.key;
+			V successorValue = successor.value;
+			return balance(this, edit, getLeft(), successorKey, successorValue, getRight().deleteMin(edit, path.reset(height)));
+		}
+		BST<K, V> left = getLeft();
+		return getRight().insert(left.key, left.value, left, edit, path.reset(height));
+	}
+
+	private BST<K, V> minNode() {
+		BST<K, V> current = this;
+		while (!current.getLeft().isLeaf()) {
+			current = current.getLeft();
 		}
-		return right.insert(getLeft());
-	}
-
-	//	bug(4)
-	// public BST<K, V> delete(K key) {
-	// 	if (isLeaf()) {
-	// 		return this;
-	// 	}
-	// 	if (entry.getKey().compareTo(key) > 0) {
-	// 		return getLeft().delete(key);
-	// 	}
-	// 	if (entry.getKey().compareTo(key) < 0) {
-	// 		return getRight().delete(key);
-	// 	}
-	// 	if (getLeft().isLeaf()) {
-	// 		return right;
-	// 	}
-	// 	if (getRight().isLeaf()) {
-	// 		return left;
-	// 	}
-	// 	return right.insert(getLeft());
-	// }
+		return current;
+	}
+
+	private BST<K, V> maxNode() {
+		BST<K, V> current = this;
+		while (!current.getRight().isLeaf()) {
+			current = current.getRight();
+		}
+		return current;
+	}
+
+	private BST<K, V> deleteMin(Object edit, Path<K, V> path) {
+		BST<K, V> current = this;
+		while (!current.getLeft().isLeaf()) {
+			path.push(current, true);
+			current = current.getLeft();
+		}
+		return rebuild(path, current.getRight(), edit);
+	}
+
+	private BST<K, V> deleteMax() {
+		Path<K, V> path = new Path<>(height);
+		BST<K, V> current = this;
+		while (!current.getRight().isLeaf()) {
+			path.push(current, false);
+			current = current.getRight();
+		}
+		return rebuild(path, current.getLeft(), null);
+	}
+
+	//	split :: Ord k ⇒ k → BST k v → (BST k v, Maybe (k, v), BST k v)
+	public Split<K, V> split(K key) {
+		Path<K, V> path = new Path<>(height);
+		BST<K, V> current = this;
+		while (!current.isLeaf()) {
+			int comparison = compare(current.key, key);
+			if (comparison == 0) {
+				break;
+			}
+			path.push(current, comparison > 0);
+			current = comparison > 0 ? current.getLeft() : current.getRight();
+		}
+		BST<K, V> smaller = current.isLeaf() ? current : current.getLeft();
+		BST<K, V> larger = current.isLeaf() ? current : current.getRight();
+		for (int i = path.depth - 1; i >= 0; i--) {
+			BST<K, V> node = path.nodes[i];
+			if (path.wentLeft[i]) {
+				larger = joinSameMode(larger, node.key, node.value, node.getRight());
+			} else {
+				smaller = joinSameMode(node.getLeft(), node.key, node.value, smaller);
+			}
+		}
+		return new Split<>(smaller, current, larger);
+	}
 
 	//	keys ::BSTkv→[k]
 	public List<K> keys() {
-		if (entry == null) {
-			return new ArrayList<>();
+		List<K> keys = new ArrayList<>(size);
+		InOrderIterator<K, V> nodes = new InOrderIterator<>(this, 0);
+		while (nodes.hasNext()) {
+			keys.add(nodes.nextNode().key);
 		}
-		List<K> keys = new ArrayList<>();
-		keys.add(entry.getKey());
-		keys.addAll(getLeft().keys());
-		keys.addAll(getRight().keys());
 		return keys;
 	}
 
 	//	toList :: BST k v → [ (k , v ) ]
 	public List<Map.Entry<K, V>> toList() {
-		if (entry == null) {
-			return new ArrayList<>();
+		List<Map.Entry<K, V>> entries = new ArrayList<>(size);
+		for (Map.Entry<K, V> entry : this) {
+			entries.add(entry);
 		}
-		List<Map.Entry<K, V>> entries = new ArrayList<>();
-		entries.add(entry);
-		entries.addAll(getLeft().toList());
-		entries.addAll(getRight().toList());
 		return entries;
 	}
 
+	/**
+	 * Iterates all entries in ascending key order.
+	 * The only allocation is a stack with one slot per level of the tree.
+	 */
+	@Override
+	public Iterator<Map.Entry<K, V>> iterator() {
+		return new InOrderIterator<>(this, 0);
+	}
+
+	@Override
+	public Spliterator<Map.Entry<K, V>> spliterator() {
+		return new EntrySpliterator<>(this, 0, size);
+	}
+
+	public Stream<Map.Entry<K, V>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	public Stream<Map.Entry<K, V>> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	private static class InOrderIterator<K extends Comparable<K>, V> implements Iterator<Map.Entry<K, V>> {
+		private final BST<K, V>[] stack;
+		private int depth = 0;
+
+		// Start at the entry with the given in-order index
+		private InOrderIterator(BST<K, V> root, int index) {
+			this.stack = newArray(root.height);
+			BST<K, V> current = root;
+			while (!current.isLeaf()) {
+				int leftSize = current.getLeft().size;
+				if (index <= leftSize) {
+					stack[depth++] = current;
+					if (index == leftSize) {
+						break;
+					}
+					current = current.getLeft();
+				} else {
+					index -= leftSize + 1;
+					current = current.getRight();
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return depth > 0;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			return nextNode().entry();
+		}
+
+		private BST<K, V> nextNode() {
+			if (depth == 0) {
+				throw new NoSuchElementException();
+			}
+			BST<K, V> next = stack[--depth];
+			BST<K, V> current = next.getRight();
+			while (!current.isLeaf()) {
+				stack[depth++] = current;
+				current = current.getLeft();
+			}
+			return next;
+		}
+	}
+
+	// Covers the entries with in-order indices [from, to) of root
+	private static class EntrySpliterator<K extends Comparable<K>, V> implements Spliterator<Map.Entry<K, V>> {
+		private BST<K, V> root;
+		private int from;
+		private int to;
+		private InOrderIterator<K, V> iterator;
+
+		private EntrySpliterator(BST<K, V> root, int from, int to) {
+			this.root = root;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+			if (from >= to) {
+				return false;
+			}
+			if (iterator == null) {
+				iterator = new InOrderIterator<>(root, from);
+			}
+			from++;
+			action.accept(iterator.next());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+			if (from < to && iterator == null) {
+				iterator = new InOrderIterator<>(root, from);
+			}
+			while (from < to) {
+				from++;
+				action.accept(iterator.next());
+			}
+		}
+
+		// Splits at the boundary between the left subtree and the rest of the smallest subtree covering the range
+		@Override
+		public Spliterator<Map.Entry<K, V>> trySplit() {
+			if (to - from < 2) {
+				return null;
+			}
+			while (true) {
+				int leftSize = root.getLeft().size;
+				if (to <= leftSize) {
+					root = root.getLeft();
+				} else if (from > leftSize) {
+					from -= leftSize + 1;
+					to -= leftSize + 1;
+					root = root.getRight();
+				} else {
+					break;
+				}
+			}
+			int middle = root.getLeft().size;
+			if (middle <= from) {
+				middle = (from + to) >>> 1;
+			}
+			EntrySpliterator<K, V> prefix = new EntrySpliterator<>(root, from, middle);
+			prefix.iterator = iterator;
+			iterator = null;
+			from = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return to - from;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+
+		@Override
+		public Comparator<? super Map.Entry<K, V>> getComparator() {
+			return Map.Entry.comparingByKey();
+		}
+	}
+
+	// Serialized form is the SerializationProxy, which streams the entries instead of the node graph
+	private Object writeReplace() {
+		return new SerializationProxy<>(this);
+	}
+
+	private void readObject(ObjectInputStream in) throws InvalidObjectException {
+		throw new InvalidObjectException("BST must be deserialized through its serialization proxy");
+	}
+
+	/**
+	 * Writes mode and size followed by all entries in pre-order.
+	 * Every entry is preceded by a byte telling which subtrees the node has,
+	 * so that reading rebuilds exactly the same shape in O(n) without recursion.
+	 * Reading checks that keys are ascending in order and, in self-balancing mode, that every node is AVL-balanced,
+	 * so that a corrupt stream cannot produce a tree that breaks later operations.
+	 */
+	private static class SerializationProxy<K extends Comparable<K>, V> implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private static final byte HAS_LEFT = 1;
+		private static final byte HAS_RIGHT = 2;
+
+		private transient BST<K, V> bst;
+
+		private SerializationProxy(BST<K, V> bst) {
+			this.bst = bst;
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			out.defaultWriteObject();
+			out.writeBoolean(bst.balanced);
+			out.writeInt(bst.size);
+			Deque<BST<K, V>> pending = new ArrayDeque<>();
+			if (!bst.isLeaf()) pending.push(bst);
+			while (!pending.isEmpty()) {
+				BST<K, V> node = pending.pop();
+				byte shape = 0;
+				if (!node.getLeft().isLeaf()) shape |= HAS_LEFT;
+				if (!node.getRight().isLeaf()) shape |= HAS_RIGHT;
+				out.writeByte(shape);
+				out.writeObject(node.key);
+				out.writeObject(node.value);
+				if (!node.getRight().isLeaf()) pending.push(node.getRight());
+				if (!node.getLeft().isLeaf()) pending.push(node.getLeft());
+			}
+		}
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			BST<K, V> mode = in.readBoolean() ? balancedNil() : nil();
+			int size = in.readInt();
+			if (size < 0) {
+				throw new InvalidObjectException("Negative size: " + size);
+			}
+			if (size == 0) {
+				bst = mode;
+				return;
+			}
+			Deque<ReadFrame<K, V>> frames = new ArrayDeque<>();
+			frames.push(ReadFrame.read(in));
+			BST<K, V> completed = null;
+			// Key of the previous node in order
+			K previous = null;
+			int read = 1;
+			while (!frames.isEmpty()) {
+				ReadFrame<K, V> frame = frames.peek();
+				if (read > size) {
+					throw new InvalidObjectException(String.format("More than %s entries", size));
+				}
+				if (frame.stage == 0) {
+					frame.stage = 1;
+					if ((frame.shape & HAS_LEFT) != 0) {
+						frames.push(ReadFrame.read(in));
+						read++;
+						continue;
+					}
+					completed = mode;
+				}
+				if (frame.stage == 1) {
+					frame.left = completed;
+					frame.stage = 2;
+					// The left subtree is complete, so this node is next in order
+					checkAscending(previous, frame.key);
+					previous = frame.key;
+					if ((frame.shape & HAS_RIGHT) != 0) {
+						frames.push(ReadFrame.read(in));
+						read++;
+						continue;
+					}
+					completed = mode;
+				}
+				frames.pop();
+				if (mode.balanced && Math.abs(frame.left.height - completed.height) > 1) {
+					throw new InvalidObjectException(String.format("Self-balancing tree is not balanced at key %s", frame.key));
+				}
+				completed = mode.branch(frame.left, frame.key, frame.value, completed);
+			}
+			if (read != size) {
+				throw new InvalidObjectException(String.format("Expected %s entries but read %s", size, read));
+			}
+			bst = completed;
+		}
+
+		private Object readResolve() {
+			return bst;
+		}
+
+		private static <K extends Comparable<K>> void checkAscending(K previous, K key) throws InvalidObjectException {
+			if (key == null) {
+				throw new InvalidObjectException("Null key");
+			}
+			try {
+				if (previous != null && compare(previous, key) >= 0) {
+					throw new InvalidObjectException(String.format("Key %s is not larger than its predecessor %s", key, previous));
+				}
+			} catch (ClassCastException e) {
+				InvalidObjectException invalid = new InvalidObjectException("Keys are not comparable: " + e.getMessage());
+				invalid.initCause(e);
+				throw invalid;
+			}
+		}
+	}
+
+	private static class ReadFrame<K extends Comparable<K>, V> {
+		private final byte shape;
+		private final K key;
+		private final V value;
+		private int stage = 0;
+		private BST<K, V> left;
+
+		private ReadFrame(byte shape, K key, V value) {
+			this.shape = shape;
+			this.key = key;
+			this.value = value;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <K extends Comparable<K>, V> ReadFrame<K, V> read(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			byte shape = in.readByte();
+			K key = (K) in.readObject();
+			V value = (V) in.readObject();
+			return new ReadFrame<>(shape, key, value);
+		}
+	}
+
+	/**
+	 * Whether both trees contain equal keys with equal values, whatever their shapes.
+	 *
+	 * Walks both trees in key order at the same time and stops at the first difference.
+	 * A subtree that is shared by both trees at the same position in the order is skipped as a whole.
+	 */
+	public boolean sameEntries(BST<K, V> other) {
+		if (this == other) return true;
+		if (size != other.size) return false;
+		EntryCursor<K, V> mine = new EntryCursor<>(this);
+		EntryCursor<K, V> theirs = new EntryCursor<>(other);
+		while (true) {
+			if (mine.pending != null && mine.pending == theirs.pending) {
+				mine.pending = null;
+				theirs.pending = null;
+				continue;
+			}
+			if (mine.pending != null || theirs.pending != null) {
+				// Descend into the larger pending subtree, hoping to meet a shared one further down
+				int mineSize = mine.pending == null ? -1 : mine.pending.size;
+				int theirSize = theirs.pending == null ? -1 : theirs.pending.size;
+				if (mineSize >= theirSize) mine.descend();
+				if (theirSize >= mineSize) theirs.descend();
+				continue;
+			}
+			if (mine.depth == 0) {
+				return theirs.depth == 0;
+			}
+			BST<K, V> next = mine.pop();
+			BST<K, V> otherNext = theirs.pop();
+			if (!Objects.equals(next.key, otherNext.key) || !Objects.equals(next.value, otherNext.value)) {
+				return false;
+			}
+		}
+	}
+
+	// In-order position in a tree: all entries of pending come next, then entry and right subtree of each stacked node
+	private static class EntryCursor<K extends Comparable<K>, V> {
+		private final BST<K, V>[] stack;
+		private int depth = 0;
+		private BST<K, V> pending;
+
+		private EntryCursor(BST<K, V> root) {
+			this.stack = newArray(root.height);
+			this.pending = root.isLeaf() ? null : root;
+		}
+
+		private void descend() {
+			stack[depth++] = pending;
+			pending = pending.getLeft().isLeaf() ? null : pending.getLeft();
+		}
+
+		private BST<K, V> pop() {
+			BST<K, V> node = stack[--depth];
+			pending = node.getRight().isLeaf() ? null : node.getRight();
+			return node;
+		}
+	}
+
+	// Shared subtrees are skipped by reference and differing ones are usually rejected by their cached hash,
+	// so comparing two versions of a tree costs time proportional to the parts that differ
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 
-		BST<?, ?> bst = (BST<?, ?>) o;
-		if (!Objects.equals(getLeft(), bst.getLeft())) return false;
-		if (!Objects.equals(entry, bst.entry)) return false;
-		return Objects.equals(getRight(), bst.getRight());
+		BST<?, ?> root = (BST<?, ?>) o;
+		if (hash != root.hash || size != root.size) return false;
+		Deque<BST<?, ?>> pairs = new ArrayDeque<>();
+		pairs.push(this);
+		pairs.push(root);
+		while (!pairs.isEmpty()) {
+			BST<?, ?> bst = pairs.pop();
+			BST<?, ?> other = pairs.pop();
+			if (bst == other) continue;
+			if (bst.hash != other.hash || bst.size != other.size) return false;
+			if (bst.isLeaf()) continue;
+			if (!Objects.equals(bst.key, other.key)) return false;
+			if (!Objects.equals(bst.value, other.value)) return false;
+			pairs.push(bst.getLeft());
+			pairs.push(other.getLeft());
+			pairs.push(bst.getRight());
+			pairs.push(other.getRight());
+		}
+		return true;
 	}
 
 	@Override
 	public int hashCode() {
-		if (entry == null) {
-			return 0;
-		}
-		int result = getLeft().hashCode();
-		result = 31 * result + entry.hashCode();
-		result = 31 * result + getRight().hashCode();
-		return result;
+		return hash;
 	}
 
 	@Override
@@ -225,13 +1440,29 @@ public class BST<K extends Comparable<K>, V> implements Serializable {
 		if (isLeaf()) {
 			return "NIL";
 		}
-		String leftString = getLeft().isLeaf() ? "" : " left: " + getLeft().toString();
-		String rightString = getRight().isLeaf() ? "" : " right: " + getRight().toString();
-		return String.format(
-				"[%s%s%s]",
-				entry.toString(),
-				leftString,
-				rightString
-		);
+		// Pending items are either subtrees still to format or literal text
+		StringBuilder builder = new StringBuilder();
+		Deque<Object> pending = new ArrayDeque<>();
+		pending.push(this);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof String) {
+				builder.append((String) next);
+				continue;
+			}
+			BST<?, ?> bst = (BST<?, ?>) next;
+			builder.append('[').append(bst.key).append('=').append(bst.value);
+			pending.push("]");
+			if (!bst.getRight().isLeaf()) {
+				pending.push(bst.getRight());
+				pending.push(" right: ");
+			}
+			if (!bst.getLeft().isLeaf()) {
+				pending.push(bst.getLeft());
+				pending.push(" left: ");
+			}
+		}
+		return builder.toString();
 	}
+
 }
@@ -0,0 +1,118 @@
+package htsi.bst;
+
+import java.util.AbstractMap.*;
+import java.util.*;
+
+import net.jqwik.api.*;
+
+/**
+ * Arbitraries for trees of realistic size.
+ *
+ * Trees are built directly from a sorted array of unique keys in O(n) instead of inserting one entry after the other,
+ * so sizes of 10^4 to 10^6 entries can be generated in reasonable time. Size and seed shrink.
+ * All trees use the unbalanced mode of {@link BST#nil()}, otherwise the degenerate shapes could not exist.
+ */
+class BSTArbitraries {
+
+	enum Shape {
+		// Perfectly balanced, the middle key of every range is the root
+		BALANCED,
+		// Every node only has a left child, i.e. keys inserted in descending order
+		LEFT_DEGENERATE,
+		// Every node only has a right child, i.e. keys inserted in ascending order
+		RIGHT_DEGENERATE,
+		// The shape that inserting the keys in random order produces
+		RANDOM_INSERTION
+	}
+
+	/**
+	 * Trees with {@code minSize <= size <= maxSize} and keys in {@code [minKey, maxKey]}.
+	 * The size is capped by the number of available keys.
+	 *
+	 * @param shapes the shapes to choose from, all shapes if empty
+	 */
+	static Arbitrary<BST<Integer, Integer>> trees(int minSize, int maxSize, int minKey, int maxKey, Shape... shapes) {
+		Arbitrary<Shape> shape = shapes.length == 0 ? Arbitraries.of(Shape.class) : Arbitraries.of(shapes);
+		return Combinators.combine(
+				Arbitraries.integers().between(minSize, maxSize),
+				Arbitraries.longs(),
+				shape
+		).as((size, seed, s) -> tree(size, minKey, maxKey, s, new Random(seed)));
+	}
+
+	/**
+	 * Keys of which about half fall into a small range, so that they are often present in generated trees.
+	 * Combined instead of oneOf, which creates generators per sample, so that {@link ShardedStatistics} can sample keys off the jqwik thread.
+	 */
+	static Arbitrary<Integer> keys() {
+		return Combinators.combine(
+				Arbitraries.of(true, false),
+				Arbitraries.integers().between(-25, 25),
+				Arbitraries.integers()
+		).as((small, smallKey, anyKey) -> small ? smallKey : anyKey);
+	}
+
+	static BST<Integer, Integer> tree(int size, int minKey, int maxKey, Shape shape, Random random) {
+		int[] keys = sortedUniqueKeys(size, minKey, maxKey, random);
+		int[] values = new int[keys.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt();
+		}
+		BST<Integer, Integer> nil = BST.nil();
+		switch (shape) {
+			case LEFT_DEGENERATE:
+				BST<Integer, Integer> leftDegenerate = nil;
+				for (int i = 0; i < keys.length; i++) {
+					leftDegenerate = BST.join(leftDegenerate, new SimpleImmutableEntry<>(keys[i], values[i]), nil);
+				}
+				return leftDegenerate;
+			case RIGHT_DEGENERATE:
+				BST<Integer, Integer> rightDegenerate = nil;
+				for (int i = keys.length - 1; i >= 0; i--) {
+					rightDegenerate = BST.join(nil, new SimpleImmutableEntry<>(keys[i], values[i]), rightDegenerate);
+				}
+				return rightDegenerate;
+			default:
+				return build(keys, values, 0, keys.length, shape == Shape.RANDOM_INSERTION ? random : null);
+		}
+	}
+
+	// Recursion depth is the height of the tree, which is logarithmic for both shapes built here.
+	// A uniformly chosen root with independently built subtrees has the distribution of a random insertion order.
+	private static BST<Integer, Integer> build(int[] keys, int[] values, int from, int to, Random random) {
+		if (from >= to) {
+			return BST.nil();
+		}
+		int root = random == null ? (from + to) >>> 1 : from + random.nextInt(to - from);
+		return BST.join(
+				build(keys, values, from, root, random),
+				new SimpleImmutableEntry<>(keys[root], values[root]),
+				build(keys, values, root + 1, to, random)
+		);
+	}
+
+	/**
+	 * Up to {@code size} distinct keys from {@code [minKey, maxKey]} in ascending order, drawn in O(size).
+	 *
+	 * Sorted uniform positions come from normalized prefix sums of exponential variables.
+	 * Adding the index to every position spreads them into distinct keys.
+	 */
+	static int[] sortedUniqueKeys(int size, int minKey, int maxKey, Random random) {
+		long range = (long) maxKey - minKey + 1;
+		int count = (int) Math.min(size, range);
+		double[] positions = new double[count];
+		double sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += -Math.log(1 - random.nextDouble());
+			positions[i] = sum;
+		}
+		sum += -Math.log(1 - random.nextDouble());
+		long slack = range - count;
+		int[] keys = new int[count];
+		for (int i = 0; i < count; i++) {
+			long offset = Math.min(slack, (long) (positions[i] / sum * slack));
+			keys[i] = (int) (minKey + i + offset);
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,69 @@
+package htsi.bst;
+
+import java.util.*;
+
+import net.jqwik.api.*;
+import net.jqwik.api.constraints.*;
+
+import htsi.bst.BSTArbitraries.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class BSTArbitraries_Properties {
+
+	@Property
+	boolean keys_are_sorted_unique_and_in_range(
+			@ForAll @IntRange(max = 10_000) int size,
+			@ForAll int minKey, @ForAll @IntRange(max = 20_000) int width,
+			@ForAll long seed
+	) {
+		int maxKey = (int) Math.min(Integer.MAX_VALUE, (long) minKey + width);
+		int[] keys = BSTArbitraries.sortedUniqueKeys(size, minKey, maxKey, new Random(seed));
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i - 1] >= keys[i]) {
+				return false;
+			}
+		}
+		long available = (long) maxKey - minKey + 1;
+		return keys.length == Math.min(size, available)
+					   && (keys.length == 0 || keys[0] >= minKey && keys[keys.length - 1] <= maxKey);
+	}
+
+	@Property(tries = 50)
+	boolean trees_have_requested_size_and_shape(
+			@ForAll @IntRange(max = 5_000) int size,
+			@ForAll Shape shape,
+			@ForAll long seed
+	) {
+		BST<Integer, Integer> bst = BSTArbitraries.tree(size, Integer.MIN_VALUE, Integer.MAX_VALUE, shape, new Random(seed));
+		// In-order keys are strictly ascending exactly if the tree is a valid search tree
+		List<Integer> keys = bst.keys();
+		for (int i = 1; i < keys.size(); i++) {
+			if (keys.get(i - 1) >= keys.get(i)) {
+				return false;
+			}
+		}
+		if (bst.size() != size) {
+			return false;
+		}
+		switch (shape) {
+			case BALANCED:
+				return bst.height() == 32 - Integer.numberOfLeadingZeros(size);
+			case LEFT_DEGENERATE:
+				return bst.height() == size && (size < 2 || !bst.right().isPresent());
+			case RIGHT_DEGENERATE:
+				return bst.height() == size && (size < 2 || !bst.left().isPresent());
+			default:
+				// Expected height of a random BST is about 4.3 ln n, this bound is only exceeded with negligible probability
+				return bst.height() <= 10 * (32 - Integer.numberOfLeadingZeros(size));
+		}
+	}
+
+	// Takes a few seconds at most since building is linear, the time is not asserted to keep the test stable
+	@Example
+	void builds_a_million_entries() {
+		BST<Integer, Integer> bst = BSTArbitraries.tree(1_000_000, 0, Integer.MAX_VALUE, Shape.RANDOM_INSERTION, new Random(42));
+		assertThat(bst.size()).isEqualTo(1_000_000);
+		assertThat(bst.height()).isLessThan(200);
+	}
+}
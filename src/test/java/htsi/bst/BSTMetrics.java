@@ -0,0 +1,115 @@
+package htsi.bst;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counters of the work BST operations do: key comparisons, allocated nodes and the length of search paths.
+ *
+ * Counting is switched on with the system property {@code htsi.bst.metrics}, e.g. {@code ./gradlew test -PbstMetrics=true}.
+ * The flag is a static final constant, so with counting switched off the JIT removes the hooks from the tree code entirely.
+ * Counters are global and shared by all threads. To attribute work to a single operation,
+ * take a snapshot before and after it on an otherwise idle tree and look at the difference.
+ */
+public class BSTMetrics {
+
+	public static final boolean ENABLED = Boolean.getBoolean("htsi.bst.metrics");
+
+	private static final LongAdder COMPARISONS = new LongAdder();
+	private static final LongAdder ALLOCATIONS = new LongAdder();
+	private static final LongAdder FINDS = new LongAdder();
+	private static final LongAdder FIND_PATH_LENGTH = new LongAdder();
+
+	static void comparison() {
+		if (ENABLED) {
+			COMPARISONS.increment();
+		}
+	}
+
+	static void allocation() {
+		if (ENABLED) {
+			ALLOCATIONS.increment();
+		}
+	}
+
+	// pathLength is the number of nodes visited, 0 for an empty tree
+	static void find(int pathLength) {
+		if (ENABLED) {
+			FINDS.increment();
+			FIND_PATH_LENGTH.add(pathLength);
+		}
+	}
+
+	public static void reset() {
+		COMPARISONS.reset();
+		ALLOCATIONS.reset();
+		FINDS.reset();
+		FIND_PATH_LENGTH.reset();
+	}
+
+	/**
+	 * The current counts together with the height of bst.
+	 * Not atomic: operations running concurrently may be counted partially.
+	 */
+	public static BSTMetrics snapshot(BST<?, ?> bst) {
+		return new BSTMetrics(COMPARISONS.sum(), ALLOCATIONS.sum(), FINDS.sum(), FIND_PATH_LENGTH.sum(), bst.height());
+	}
+
+	private final long comparisons;
+	private final long allocations;
+	private final long finds;
+	private final long findPathLength;
+	private final int height;
+
+	private BSTMetrics(long comparisons, long allocations, long finds, long findPathLength, int height) {
+		this.comparisons = comparisons;
+		this.allocations = allocations;
+		this.finds = finds;
+		this.findPathLength = findPathLength;
+		this.height = height;
+	}
+
+	/**
+	 * The work counted between earlier and this snapshot, with the height of this one.
+	 */
+	public BSTMetrics since(BSTMetrics earlier) {
+		return new BSTMetrics(
+				comparisons - earlier.comparisons,
+				allocations - earlier.allocations,
+				finds - earlier.finds,
+				findPathLength - earlier.findPathLength,
+				height
+		);
+	}
+
+	public long comparisons() {
+		return comparisons;
+	}
+
+	public long allocations() {
+		return allocations;
+	}
+
+	public long finds() {
+		return finds;
+	}
+
+	public long findPathLength() {
+		return findPathLength;
+	}
+
+	public int height() {
+		return height;
+	}
+
+	public double averageFindPathLength() {
+		return finds == 0 ? 0 : (double) findPathLength / finds;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"BSTMetrics[comparisons=%d, allocations=%d, finds=%d, findPathLength=%d, height=%d]",
+				comparisons, allocations, finds, findPathLength, height
+		);
+	}
+}
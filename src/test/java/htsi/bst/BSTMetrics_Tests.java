@@ -0,0 +1,67 @@
+package htsi.bst;
+
+import net.jqwik.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Counts are checked exactly by ./gradlew metricsTest, which switches counting on
+class BSTMetrics_Tests {
+
+	// 2
+	//  \
+	//   3
+	private final BST<Integer, String> bst = BST.<Integer, String>nil().insert(2, "two").insert(3, "three");
+
+	@Example
+	void find_counts_path_length_and_comparisons() {
+		BSTMetrics before = BSTMetrics.snapshot(bst);
+		bst.find(3);
+		bst.find(1);
+		BSTMetrics work = BSTMetrics.snapshot(bst).since(before);
+
+		assertThat(work.height()).isEqualTo(2);
+		if (BSTMetrics.ENABLED) {
+			assertThat(work.finds()).isEqualTo(2);
+			assertThat(work.findPathLength()).isEqualTo(3);
+			assertThat(work.comparisons()).isEqualTo(3);
+			assertThat(work.averageFindPathLength()).isEqualTo(1.5);
+			assertThat(work.allocations()).isZero();
+		} else {
+			assertThat(work.finds()).isZero();
+			assertThat(work.comparisons()).isZero();
+		}
+	}
+
+	@Example
+	void insert_allocates_the_path_to_the_new_node() {
+		BSTMetrics before = BSTMetrics.snapshot(bst);
+		BST<Integer, String> updated = bst.insert(4, "four");
+		BSTMetrics work = BSTMetrics.snapshot(updated).since(before);
+
+		assertThat(work.height()).isEqualTo(3);
+		if (BSTMetrics.ENABLED) {
+			// New node and copies of both ancestors
+			assertThat(work.allocations()).isEqualTo(3);
+			assertThat(work.comparisons()).isEqualTo(2);
+		} else {
+			assertThat(work.allocations()).isZero();
+		}
+	}
+
+	@Example
+	void union_with_disjoint_range_only_joins() {
+		BST<Integer, String> other = BST.<Integer, String>nil().insert(5, "five");
+		BSTMetrics before = BSTMetrics.snapshot(bst);
+		BST<Integer, String> union = BST.union(bst, other);
+		BSTMetrics work = BSTMetrics.snapshot(union).since(before);
+
+		assertThat(union.size()).isEqualTo(3);
+		if (BSTMetrics.ENABLED) {
+			assertThat(work.comparisons()).isPositive();
+			assertThat(work.allocations()).isPositive();
+		} else {
+			assertThat(work.comparisons()).isZero();
+			assertThat(work.allocations()).isZero();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package htsi.bst;
+
+import java.util.*;
+
+/**
+ * Shape of a tree as computed by {@link BSTUtils#shape(BST)}.
+ *
+ * Depths count nodes, so the root has depth 1 and the depth of a node is the number of comparisons
+ * a successful find for its key takes. A leaf is a node without children.
+ * The balance factor of a node is the height of its right minus the height of its left subtree.
+ */
+class BSTShape {
+
+	private final int size;
+	private final int height;
+	private final int minLeafDepth;
+	private final int maxLeafDepth;
+	private final long internalPathLength;
+	private final SortedMap<Integer, Long> balanceFactors;
+
+	BSTShape(int size, int height, int minLeafDepth, int maxLeafDepth, long internalPathLength, SortedMap<Integer, Long> balanceFactors) {
+		this.size = size;
+		this.height = height;
+		this.minLeafDepth = minLeafDepth;
+		this.maxLeafDepth = maxLeafDepth;
+		this.internalPathLength = internalPathLength;
+		this.balanceFactors = Collections.unmodifiableSortedMap(balanceFactors);
+	}
+
+	int size() {
+		return size;
+	}
+
+	int height() {
+		return height;
+	}
+
+	// 0 for an empty tree
+	int minLeafDepth() {
+		return minLeafDepth;
+	}
+
+	int maxLeafDepth() {
+		return maxLeafDepth;
+	}
+
+	// Sum of the depths of all nodes
+	long internalPathLength() {
+		return internalPathLength;
+	}
+
+	// Expected comparisons of a successful find for a uniformly chosen key, 0 for an empty tree
+	double averageSearchDepth() {
+		return size == 0 ? 0 : (double) internalPathLength / size;
+	}
+
+	// Number of nodes per balance factor
+	SortedMap<Integer, Long> balanceFactors() {
+		return balanceFactors;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"BSTShape[size=%d, height=%d, leafDepth=%d..%d, averageSearchDepth=%.2f, balanceFactors=%s]",
+				size, height, minLeafDepth, maxLeafDepth, averageSearchDepth(), balanceFactors
+		);
+	}
+}
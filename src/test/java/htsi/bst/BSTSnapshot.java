@@ -0,0 +1,197 @@
+package htsi.bst;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.channels.FileChannel.*;
+import java.nio.file.*;
+import java.util.AbstractMap.*;
+import java.util.*;
+
+/**
+ * Read-only view of a {@code BST<Integer, Integer>} stored in a memory-mapped file.
+ *
+ * The file holds a header followed by all keys in ascending order and then all values in the same order.
+ * Opening a snapshot only maps the file and checks the header, so it takes O(1) whatever the file size.
+ * Lookups binary-search the mapped keys directly, and processes that map the same file
+ * share its pages through the OS page cache.
+ */
+public class BSTSnapshot {
+
+	private static final int MAGIC = 0x42535431; // "BST1"
+	private static final int HEADER_BYTES = 8;
+	private static final int MAX_SIZE = (Integer.MAX_VALUE - HEADER_BYTES) / (2 * Integer.BYTES);
+
+	/**
+	 * Writes bst to a temporary file next to file and moves it into place when complete,
+	 * so a write that fails leaves file as it was.
+	 * Null keys and values cannot be stored and fail with a NullPointerException.
+	 */
+	public static void write(BST<Integer, Integer> bst, Path file) throws IOException {
+		int size = bst.size();
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException(String.format("Snapshot of %s entries exceeds maximum of %s", size, MAX_SIZE));
+		}
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			writeEntries(bst, size, temporary);
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	// The header goes in last, so a file that was not written completely never opens
+	private static void writeEntries(BST<Integer, Integer> bst, int size, Path file) throws IOException {
+		long bytes = HEADER_BYTES + 2L * Integer.BYTES * size;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, bytes);
+			IntBuffer keys = sliceInts(buffer, HEADER_BYTES, size);
+			IntBuffer values = sliceInts(buffer, HEADER_BYTES + Integer.BYTES * size, size);
+			for (Map.Entry<Integer, Integer> entry : bst) {
+				keys.put(Objects.requireNonNull(entry.getKey(), "Snapshot cannot store null key"));
+				values.put(Objects.requireNonNull(entry.getValue(), () -> "Snapshot cannot store null value of key " + entry.getKey()));
+			}
+			buffer.force();
+			buffer.putInt(0, MAGIC).putInt(Integer.BYTES, size);
+			buffer.force();
+		}
+	}
+
+	public static BSTSnapshot open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_BYTES || fileSize > HEADER_BYTES + 2L * Integer.BYTES * MAX_SIZE) {
+				throw new IOException("Not a BST snapshot: " + file);
+			}
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, fileSize);
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a BST snapshot: " + file);
+			}
+			int size = buffer.getInt(Integer.BYTES);
+			if (size < 0 || fileSize != HEADER_BYTES + 2L * Integer.BYTES * size) {
+				throw new IOException(String.format("Corrupt BST snapshot %s: size %s does not match file length %s", file, size, fileSize));
+			}
+			return new BSTSnapshot(
+					sliceInts(buffer, HEADER_BYTES, size),
+					sliceInts(buffer, HEADER_BYTES + Integer.BYTES * size, size)
+			);
+		}
+	}
+
+	private static IntBuffer sliceInts(ByteBuffer buffer, int offset, int count) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + Integer.BYTES * count);
+		return duplicate.slice().asIntBuffer();
+	}
+
+	private final IntBuffer keys;
+	private final IntBuffer values;
+
+	private BSTSnapshot(IntBuffer keys, IntBuffer values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	public int size() {
+		return keys.limit();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean containsKey(int key) {
+		return indexOf(key) >= 0;
+	}
+
+	public Optional<Integer> find(int key) {
+		int index = indexOf(key);
+		return index < 0 ? Optional.empty() : Optional.of(values.get(index));
+	}
+
+	public int findOrDefault(int key, int defaultValue) {
+		int index = indexOf(key);
+		return index < 0 ? defaultValue : values.get(index);
+	}
+
+	// Index of key if present, otherwise -(insertion point) - 1
+	private int indexOf(int key) {
+		int low = 0;
+		int high = size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleKey = keys.get(middle);
+			if (middleKey < key) {
+				low = middle + 1;
+			} else if (middleKey > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * All keys in ascending order, read lazily from the mapping.
+	 */
+	public List<Integer> keys() {
+		return new AbstractList<Integer>() {
+			@Override
+			public Integer get(int index) {
+				return keys.get(index);
+			}
+
+			@Override
+			public int size() {
+				return BSTSnapshot.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Entries with {@code lo <= key < hi} in ascending order, read lazily from the mapping.
+	 */
+	public Iterator<Map.Entry<Integer, Integer>> range(int lo, int hi) {
+		int start = insertionPoint(lo);
+		int end = lo < hi ? insertionPoint(hi) : start;
+		return entries(start, end);
+	}
+
+	private Iterator<Map.Entry<Integer, Integer>> entries(int start, int end) {
+		return new Iterator<Map.Entry<Integer, Integer>>() {
+			private int next = start;
+
+			@Override
+			public boolean hasNext() {
+				return next < end;
+			}
+
+			@Override
+			public Map.Entry<Integer, Integer> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<Integer, Integer> entry = new SimpleImmutableEntry<>(keys.get(next), values.get(next));
+				next++;
+				return entry;
+			}
+		};
+	}
+
+	private int insertionPoint(int key) {
+		int index = indexOf(key);
+		return index < 0 ? -(index + 1) : index;
+	}
+
+	/**
+	 * Load all entries into a self-balancing heap tree in O(n).
+	 */
+	public BST<Integer, Integer> toBST() {
+		return BST.fromSorted(entries(0, size()));
+	}
+}
@@ -0,0 +1,106 @@
+package htsi.bst;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.Map.*;
+
+import net.jqwik.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class BSTSnapshot_Properties {
+
+	@Property(tries = 200)
+	boolean snapshot_finds_same_values_as_tree(
+			@ForAll("trees") BST<Integer, Integer> bst,
+			@ForAll("keys") List<Integer> lookups
+	) throws IOException {
+		BSTSnapshot snapshot = writeAndOpen(bst);
+		for (Integer key : lookups) {
+			if (!snapshot.find(key).equals(bst.find(key))) {
+				return false;
+			}
+			if (snapshot.containsKey(key) != bst.find(key).isPresent()) {
+				return false;
+			}
+		}
+		return snapshot.size() == bst.size() && snapshot.keys().equals(bst.keys());
+	}
+
+	@Property(tries = 200)
+	boolean snapshot_range_scans_entries_in_order(
+			@ForAll("trees") BST<Integer, Integer> bst,
+			@ForAll("key") int lo,
+			@ForAll("key") int hi
+	) throws IOException {
+		BSTSnapshot snapshot = writeAndOpen(bst);
+		List<Entry<Integer, Integer>> scanned = new ArrayList<>();
+		snapshot.range(lo, hi).forEachRemaining(scanned::add);
+		List<Entry<Integer, Integer>> expected = new ArrayList<>();
+		for (Entry<Integer, Integer> entry : bst) {
+			if (entry.getKey() >= lo && entry.getKey() < hi) {
+				expected.add(entry);
+			}
+		}
+		return scanned.equals(expected);
+	}
+
+	@Property(tries = 100)
+	boolean snapshot_loads_equivalent_tree(@ForAll("trees") BST<Integer, Integer> bst) throws IOException {
+		BST<Integer, Integer> loaded = writeAndOpen(bst).toBST();
+		return BSTUtils.equivalent(loaded, bst) && BSTUtils.isBalanced(loaded);
+	}
+
+	@Example
+	void opening_a_foreign_file_fails() throws IOException {
+		Path file = Files.createTempFile("not-a-snapshot", ".bin");
+		file.toFile().deleteOnExit();
+		Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+		assertThatThrownBy(() -> BSTSnapshot.open(file)).isInstanceOf(IOException.class);
+	}
+
+	@Example
+	void failed_write_leaves_no_snapshot_that_opens() throws IOException {
+		Path directory = Files.createTempDirectory("bst-snapshots");
+		directory.toFile().deleteOnExit();
+		Path file = directory.resolve("tree.snapshot");
+		BST<Integer, Integer> withNullValue = BST.<Integer, Integer>nil().insert(1, 1).insert(2, null).insert(3, 3);
+
+		assertThatThrownBy(() -> BSTSnapshot.write(withNullValue, file)).isInstanceOf(NullPointerException.class);
+		assertThatThrownBy(() -> BSTSnapshot.open(file)).isInstanceOf(IOException.class);
+
+		BSTSnapshot.write(BST.<Integer, Integer>nil().insert(1, 1), file);
+		file.toFile().deleteOnExit();
+		assertThatThrownBy(() -> BSTSnapshot.write(withNullValue, file)).isInstanceOf(NullPointerException.class);
+		assertThat(BSTSnapshot.open(file).keys()).containsExactly(1);
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			assertThat(files).containsExactly(file);
+		}
+	}
+
+	private BSTSnapshot writeAndOpen(BST<Integer, Integer> bst) throws IOException {
+		Path file = Files.createTempFile("bst", ".snapshot");
+		file.toFile().deleteOnExit();
+		BSTSnapshot.write(bst, file);
+		return BSTSnapshot.open(file);
+	}
+
+	@Provide
+	Arbitrary<BST<Integer, Integer>> trees() {
+		return Combinators.combine(key(), Arbitraries.integers()).as(AbstractMap.SimpleImmutableEntry::new)
+						  .list().ofMaxSize(500)
+						  .map(BST::fromEntries);
+	}
+
+	@Provide
+	Arbitrary<List<Integer>> keys() {
+		return key().list();
+	}
+
+	@Provide
+	Arbitrary<Integer> key() {
+		return BSTArbitraries.keys();
+	}
+}
@@ -1,33 +1,151 @@
 package htsi.bst;
 
+import java.io.*;
 import java.util.*;
 import java.util.Map.*;
-import java.util.stream.*;
 
 class BSTUtils {
 
 	public static <K extends Comparable<K>, V> boolean isValid(BST<K, V> bst) {
-		if (bst.isLeaf()) {
-			return true;
+		return !findViolation(bst, false).isPresent();
+	}
+
+	/**
+	 * Same result as {@link #isValid(BST)}, but subtrees that were already found valid are not checked again.
+	 * Only their smallest and largest keys are compared with the bounds.
+	 * After a successful check all nodes of bst are remembered as valid.
+	 */
+	public static <K extends Comparable<K>, V> boolean isValidCached(BST<K, V> bst) {
+		return !findViolation(bst, true).isPresent();
+	}
+
+	/**
+	 * Keys on the path from the root to the first node whose key is not within the bounds set by its ancestors,
+	 * or empty if bst is a valid search tree.
+	 */
+	public static <K extends Comparable<K>, V> Optional<List<K>> findViolation(BST<K, V> bst) {
+		return findViolation(bst, false);
+	}
+
+	// Passes exclusive (lo, hi) bounds down an explicit stack, so it takes O(n) and cannot overflow the Java stack
+	private static <K extends Comparable<K>, V> Optional<List<K>> findViolation(BST<K, V> bst, boolean useCache) {
+		List<BST<K, V>> checked = new ArrayList<>();
+		Deque<Bounded<K, V>> pending = new ArrayDeque<>();
+		if (!bst.isLeaf()) {
+			pending.push(new Bounded<>(bst, null, null, null, useCache));
 		}
-		return isValid(bst.left()) && isValid(bst.right())
-					   && keys(bst.left()).allMatch(k -> k.compareTo(bst.key()) < 0)
-					   && keys(bst.right()).allMatch(k -> k.compareTo(bst.key()) > 0);
+		while (!pending.isEmpty()) {
+			Bounded<K, V> current = pending.pop();
+			BST<K, V> node = current.node;
+			if (current.useCache && node.isValidated()) {
+				if (current.contains(node.first().get().getKey()) && current.contains(node.last().get().getKey())) {
+					continue;
+				}
+				// Descend without the cache to find the violating node
+				pending.push(new Bounded<>(node, current.lo, current.hi, current.parent, false));
+				continue;
+			}
+			if (!current.contains(node.key())) {
+				return Optional.of(current.path());
+			}
+			if (useCache) {
+				checked.add(node);
+			}
+			node.right().ifPresent(right -> pending.push(new Bounded<>(right, node.key(), current.hi, current, current.useCache)));
+			node.left().ifPresent(left -> pending.push(new Bounded<>(left, current.lo, node.key(), current, current.useCache)));
+		}
+		if (useCache) {
+			checked.forEach(BST::markValidated);
+		}
+		return Optional.empty();
 	}
 
-	@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
-	private static <K extends Comparable<K>, V> Stream<K> keys(Optional<BST<K, V>> bst) {
-		return bst.map(BST::keys).orElse(Collections.emptyList()).stream();
+	private static class Bounded<K extends Comparable<K>, V> {
+		private final BST<K, V> node;
+		// Exclusive bounds, null if unbounded
+		private final K lo;
+		private final K hi;
+		private final Bounded<K, V> parent;
+		private final boolean useCache;
+
+		private Bounded(BST<K, V> node, K lo, K hi, Bounded<K, V> parent, boolean useCache) {
+			this.node = node;
+			this.lo = lo;
+			this.hi = hi;
+			this.parent = parent;
+			this.useCache = useCache;
+		}
+
+		private boolean contains(K key) {
+			return (lo == null || lo.compareTo(key) < 0) && (hi == null || key.compareTo(hi) < 0);
+		}
+
+		private List<K> path() {
+			LinkedList<K> path = new LinkedList<>();
+			for (Bounded<K, V> current = this; current != null; current = current.parent) {
+				path.addFirst(current.node.key());
+			}
+			return path;
+		}
 	}
 
-	@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
-	private static <K extends Comparable<K>, V> boolean isValid(Optional<BST<K, V>> optionalBST) {
-		return optionalBST.map(BSTUtils::isValid).orElse(true);
+	/**
+	 * Height, leaf depths, search depth and balance factors of bst in a single pass over its nodes.
+	 */
+	public static <K extends Comparable<K>, V> BSTShape shape(BST<K, V> bst) {
+		int minLeafDepth = 0;
+		int maxLeafDepth = 0;
+		long internalPathLength = 0;
+		SortedMap<Integer, Long> balanceFactors = new TreeMap<>();
+		// Nodes and their depths, explicit so that degenerate trees cannot overflow the Java stack
+		Deque<BST<K, V>> nodes = new ArrayDeque<>();
+		Deque<Integer> depths = new ArrayDeque<>();
+		if (!bst.isLeaf()) {
+			nodes.push(bst);
+			depths.push(1);
+		}
+		while (!nodes.isEmpty()) {
+			BST<K, V> node = nodes.pop();
+			int depth = depths.pop();
+			internalPathLength += depth;
+			int leftHeight = node.left().map(BST::height).orElse(0);
+			int rightHeight = node.right().map(BST::height).orElse(0);
+			balanceFactors.merge(rightHeight - leftHeight, 1L, Long::sum);
+			if (leftHeight == 0 && rightHeight == 0) {
+				minLeafDepth = minLeafDepth == 0 ? depth : Math.min(minLeafDepth, depth);
+				maxLeafDepth = Math.max(maxLeafDepth, depth);
+			}
+			node.left().ifPresent(left -> {
+				nodes.push(left);
+				depths.push(depth + 1);
+			});
+			node.right().ifPresent(right -> {
+				nodes.push(right);
+				depths.push(depth + 1);
+			});
+		}
+		return new BSTShape(bst.size(), bst.height(), minLeafDepth, maxLeafDepth, internalPathLength, balanceFactors);
+	}
+
+	// AVL invariant: heights of sibling subtrees differ by at most one
+	public static <K extends Comparable<K>, V> boolean isBalanced(BST<K, V> bst) {
+		if (bst.isLeaf()) {
+			return true;
+		}
+		int leftHeight = bst.left().map(BST::height).orElse(0);
+		int rightHeight = bst.right().map(BST::height).orElse(0);
+		return Math.abs(leftHeight - rightHeight) <= 1
+					   && bst.left().map(BSTUtils::isBalanced).orElse(true)
+					   && bst.right().map(BSTUtils::isBalanced).orElse(true);
+	}
+
+	// Upper bound for the height of an AVL tree with the given number of entries
+	public static int maxBalancedHeight(int size) {
+		return (int) Math.floor(1.4405 * Math.log(size + 2) / Math.log(2) - 0.3277);
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <K extends Comparable<K>, V> boolean equivalent(BST<K, V> bst1, BST<K, V> bst2) {
-		return new HashSet<>(bst1.toList()).equals(new HashSet<>(bst2.toList()));
+		return bst1.sameEntries(bst2);
 	}
 
 	// insertions Leaf = [ ]
@@ -37,9 +155,20 @@ class BSTUtils {
 			return Collections.emptyList();
 		}
 		List<Entry<K, V>> insertions = new ArrayList<>();
-		insertions.add(bst.entry);
+		insertions.add(new AbstractMap.SimpleImmutableEntry<>(bst.key(), bst.value()));
 		bst.left().ifPresent(left -> insertions.addAll(insertions(left)));
 		bst.right().ifPresent(right -> insertions.addAll(insertions(right)));
 		return insertions;
 	}
+
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<K>, V> BST<K, V> roundTrip(BST<K, V> bst) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(bst);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (BST<K, V>) in.readObject();
+		}
+	}
 }
@@ -3,9 +3,12 @@ package htsi.bst;
 import java.util.AbstractMap.*;
 import java.util.*;
 import java.util.Map.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 import net.jqwik.api.*;
 import net.jqwik.api.Tuple.*;
+import net.jqwik.api.constraints.*;
 import net.jqwik.api.statistics.Statistics;
 
 import static htsi.bst.BSTUtils.*;
@@ -33,6 +36,57 @@ class BST_Properties {
 			return isValid(bst.insert(key, 42));
 		}
 
+		@Property
+		boolean findViolation_reports_path_to_misplaced_key(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll Integer value
+		) {
+			Assume.that(!bst.isEmpty());
+			Integer smallest = bst.first().get().getKey();
+			// join does not check its precondition, so no key in the left subtree is smaller than the root's key
+			BST<Integer, Integer> invalid = BST.join(bst, new SimpleImmutableEntry<>(smallest, value), BST.nil());
+			Optional<List<Integer>> path = findViolation(invalid);
+			return path.isPresent()
+						   && path.get().size() >= 2
+						   && path.get().get(0).equals(smallest)
+						   && path.get().get(path.get().size() - 1) >= smallest
+						   && !isValidCached(invalid);
+		}
+
+		@Property
+		boolean isValidCached_agrees_with_isValid_on_derived_trees(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll Integer key, @ForAll Integer value
+		) {
+			boolean valid = isValidCached(bst);
+			BST<Integer, Integer> inserted = bst.insert(key, value);
+			BST<Integer, Integer> misplaced = BST.join(inserted, new SimpleImmutableEntry<>(key, value), bst);
+			return valid && isValidCached(inserted) && isValidCached(bst)
+						   && isValidCached(misplaced) == isValid(misplaced);
+		}
+
+		@Property(tries = 10)
+		boolean deep_degenerate_trees_valid(
+				@ForAll("deepDegenerateTrees") BST<Integer, Integer> bst,
+				@ForAll @IntRange(min = -SCALED_KEY_RANGE, max = SCALED_KEY_RANGE) int key
+		) {
+			return isValid(bst) && isValid(bst.insert(key, 42)) && isValid(bst.delete(key));
+		}
+
+		@Provide
+		Arbitrary<BST<Integer, Integer>> deepDegenerateTrees() {
+			return BSTArbitraries.trees(10_000, 100_000, -SCALED_KEY_RANGE, SCALED_KEY_RANGE,
+					BSTArbitraries.Shape.LEFT_DEGENERATE, BSTArbitraries.Shape.RIGHT_DEGENERATE);
+		}
+
+		@Property(tries = 30)
+		boolean scaled_insert_and_delete_valid(
+				@ForAll("scaledTrees") BST<Integer, Integer> bst,
+				@ForAll @IntRange(min = -SCALED_KEY_RANGE, max = SCALED_KEY_RANGE) int key
+		) {
+			return isValid(bst) && isValid(bst.insert(key, 42)) && isValid(bst.delete(key));
+		}
+
 		@Property
 		boolean delete_valid(
 				@ForAll("trees") BST<Integer, Integer> bst,
@@ -59,7 +113,7 @@ class BST_Properties {
 		@Property
 		boolean insert_post(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst,
 				@ForAll Integer otherKey
 		) {
 			Optional<Integer> found = bst.insert(key, value).find(otherKey);
@@ -71,7 +125,7 @@ class BST_Properties {
 		@Property
 		boolean delete_post(
 				@ForAll Integer key,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			return bst.delete(key).find(key).equals(Optional.empty());
 		}
@@ -79,7 +133,7 @@ class BST_Properties {
 		@Property
 		boolean insert_post_same_key(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			return insert_post(key, value, bst, key);
 		}
@@ -87,8 +141,8 @@ class BST_Properties {
 		// prop_UnionPost t t′ k = find k (union t t′) === (find k t <|> find k t′)
 		@Property
 		boolean union_post(
-				@ForAll("trees") BST<Integer, Integer> left,
-				@ForAll("trees") BST<Integer, Integer> right,
+				@ForAll("treesInBothModes") BST<Integer, Integer> left,
+				@ForAll("treesInBothModes") BST<Integer, Integer> right,
 				@ForAll Integer key
 		) {
 			BST<Integer, Integer> union = BST.union(left, right);
@@ -97,10 +151,47 @@ class BST_Properties {
 			return Objects.equals(unionValue, previousValue);
 		}
 
+		@Property
+		boolean unionWith_post(
+				@ForAll("treesInBothModes") BST<Integer, Integer> left,
+				@ForAll("treesInBothModes") BST<Integer, Integer> right,
+				@ForAll("keys") Integer key
+		) {
+			Optional<Integer> found = BST.unionWith(left, right, Integer::sum).find(key);
+			Optional<Integer> leftValue = left.find(key);
+			Optional<Integer> rightValue = right.find(key);
+			Optional<Integer> expected = leftValue.isPresent() && rightValue.isPresent()
+												 ? Optional.of(leftValue.get() + rightValue.get())
+												 : leftValue.isPresent() ? leftValue : rightValue;
+			return found.equals(expected);
+		}
+
+		@Property
+		boolean intersection_post(
+				@ForAll("treesInBothModes") BST<Integer, Integer> left,
+				@ForAll("treesInBothModes") BST<Integer, Integer> right,
+				@ForAll("keys") Integer key
+		) {
+			Optional<Integer> found = BST.intersection(left, right).find(key);
+			Optional<Integer> expected = right.find(key).isPresent() ? left.find(key) : Optional.empty();
+			return found.equals(expected);
+		}
+
+		@Property
+		boolean difference_post(
+				@ForAll("treesInBothModes") BST<Integer, Integer> left,
+				@ForAll("treesInBothModes") BST<Integer, Integer> right,
+				@ForAll("keys") Integer key
+		) {
+			Optional<Integer> found = BST.difference(left, right).find(key);
+			Optional<Integer> expected = right.find(key).isPresent() ? Optional.empty() : left.find(key);
+			return found.equals(expected);
+		}
+
 		@Property
 		boolean find_post_present(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			return bst.insert(key, value).find(key).equals(Optional.of(value));
 		}
@@ -108,7 +199,7 @@ class BST_Properties {
 		@Property
 		boolean find_post_absent(
 				@ForAll Integer key,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			return bst.delete(key).find(key).equals(Optional.empty());
 		}
@@ -119,7 +210,7 @@ class BST_Properties {
 		@Property
 		boolean insert_delete_complete(
 				@ForAll Integer key,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			Optional<Integer> found = bst.find(key);
 			if (!found.isPresent()) {
@@ -140,7 +231,7 @@ class BST_Properties {
 		boolean insert_insert1(
 				@ForAll Integer key1, @ForAll Integer value1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			return bst.insert(key1, value1).insert(key2, value2)
 					  .equals(bst.insert(key2, value2).insert(key1, value1));
@@ -153,7 +244,7 @@ class BST_Properties {
 		boolean insert_insert(
 				@ForAll Integer key1, @ForAll Integer value1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			BST<Integer, Integer> inserted = bst.insert(key1, value1).insert(key2, value2);
 			BST<Integer, Integer> expected =
@@ -167,7 +258,7 @@ class BST_Properties {
 		boolean insert_insert_weak(
 				@ForAll Integer key1, @ForAll Integer value1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			Assume.that(!key1.equals(key2));
 			return equivalent(
@@ -184,7 +275,7 @@ class BST_Properties {
 		boolean insert_delete(
 				@ForAll Integer key1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			BST<Integer, Integer> deleted = bst.delete(key1).insert(key2, value2);
 			BST<Integer, Integer> expected =
@@ -198,7 +289,7 @@ class BST_Properties {
 		boolean insert_delete_weak(
 				@ForAll Integer key1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			Assume.that(!key1.equals(key2));
 			return equivalent(
@@ -214,8 +305,8 @@ class BST_Properties {
 		@Property
 		boolean insert_union(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst1,
-				@ForAll("trees") BST<Integer, Integer> bst2
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
 		) {
 			BST<Integer, Integer> unionInsert = BST.union(bst1, bst2).insert(key, value);
 			BST<Integer, Integer> insertUnion = BST.union(bst1.insert(key, value), bst2);
@@ -227,7 +318,7 @@ class BST_Properties {
 		boolean delete_insert_weak(
 				@ForAll Integer key1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			Assume.that(!key1.equals(key2));
 			return equivalent(
@@ -249,7 +340,7 @@ class BST_Properties {
 		boolean delete_insert(
 				@ForAll Integer key1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			BST<Integer, Integer> inserted = bst.insert(key2, value2).delete(key1);
 			BST<Integer, Integer> expected =
@@ -264,7 +355,7 @@ class BST_Properties {
 		boolean delete_delete(
 				@ForAll Integer key1,
 				@ForAll Integer key2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			return equivalent(
 					bst.delete(key2).delete(key1),
@@ -277,8 +368,8 @@ class BST_Properties {
 		@Property
 		boolean delete_union(
 				@ForAll Integer key,
-				@ForAll("trees") BST<Integer, Integer> bst1,
-				@ForAll("trees") BST<Integer, Integer> bst2
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
 		) {
 			return equivalent(
 					BST.union(bst1, bst2).delete(key),
@@ -288,13 +379,13 @@ class BST_Properties {
 
 		// prop_UnionNil1 t = union nil t === t
 		@Property
-		boolean union_nil1(@ForAll("trees") BST<Integer, Integer> bst) {
+		boolean union_nil1(@ForAll("treesInBothModes") BST<Integer, Integer> bst) {
 			return BST.union(bst, BST.nil()).equals(bst);
 		}
 
 		// prop_UnionNil2 t = union t nil === t
 		@Property
-		boolean union_nil2(@ForAll("trees") BST<Integer, Integer> bst) {
+		boolean union_nil2(@ForAll("treesInBothModes") BST<Integer, Integer> bst) {
 			return BST.union(BST.nil(), bst).equals(bst);
 		}
 
@@ -303,8 +394,8 @@ class BST_Properties {
 		@Property
 		boolean union_delete_insert(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst1,
-				@ForAll("trees") BST<Integer, Integer> bst2
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
 		) {
 			return equivalent(
 					BST.union(bst1.delete(key), bst2.insert(key, value)),
@@ -314,12 +405,13 @@ class BST_Properties {
 
 		// prop_UnionUnionIdem t = union t t 􏰂=eqv= t
 		@Property
-		boolean union_union_idem(@ForAll("trees") BST<Integer, Integer> bst) {
+		boolean union_union_idem(@ForAll("treesInBothModes") BST<Integer, Integer> bst) {
 			return BST.union(bst, bst).equals(bst);
 		}
 
 		// prop_UnionUnionAssoc t1 t2 t3 =
 		//   union (union t1 t2 ) t3 === union t1 (union t2 t3 )
+		// Compares structure, which rebalancing changes, so only for unbalanced trees
 		@Property
 		boolean union_union_assoc(
 				@ForAll("trees") BST<Integer, Integer> bst1,
@@ -344,7 +436,7 @@ class BST_Properties {
 		boolean find_insert(
 				@ForAll Integer key1,
 				@ForAll Integer key2, @ForAll Integer value2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			Optional<Integer> found = bst.insert(key2, value2).find(key1);
 			Optional<Integer> expected =
@@ -360,7 +452,7 @@ class BST_Properties {
 		boolean find_delete(
 				@ForAll Integer key1,
 				@ForAll Integer key2,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			Optional<Integer> found = bst.delete(key2).find(key1);
 			Optional<Integer> expected =
@@ -374,8 +466,8 @@ class BST_Properties {
 		@Property
 		boolean find_union(
 				@ForAll Integer key,
-				@ForAll("trees") BST<Integer, Integer> bst1,
-				@ForAll("trees") BST<Integer, Integer> bst2
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
 		) {
 			Optional<Integer> found = BST.union(bst1, bst2).find(key);
 			Optional<Integer> expected = bst1.find(key).isPresent() ?
@@ -394,8 +486,8 @@ class BST_Properties {
 		@Disabled("Does not generate enough examples with assumption fulfilled")
 		boolean insert_preserves_equivalence_exhausted(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst1,
-				@ForAll("trees") BST<Integer, Integer> bst2
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
 		) {
 			Assume.that(equivalent(bst1, bst2));
 			return equivalent(
@@ -457,6 +549,25 @@ class BST_Properties {
 			return equivalent(bsts.get1(), bsts.get2());
 		}
 
+		@Property
+		boolean sameEntries_compares_entry_sets(
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
+		) {
+			boolean sameSets = new HashSet<>(bst1.toList()).equals(new HashSet<>(bst2.toList()));
+			return bst1.sameEntries(bst2) == sameSets && bst2.sameEntries(bst1) == sameSets;
+		}
+
+		@Property
+		boolean sameEntries_of_versions_sharing_subtrees(
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer key, @ForAll Integer value
+		) {
+			BST<Integer, Integer> version = bst.delete(key).insert(key, value);
+			boolean sameSets = new HashSet<>(bst.toList()).equals(new HashSet<>(version.toList()));
+			return bst.sameEntries(version) == sameSets && version.sameEntries(bst) == sameSets;
+		}
+
 		@Provide
 		Arbitrary<Tuple2<BST, BST>> equivalentTrees() {
 			Arbitrary<Integer> keys = Arbitraries.integers();
@@ -535,12 +646,37 @@ class BST_Properties {
 	@Group
 	class Model_Based_Properties {
 
+		@Property(tries = 30)
+		boolean scaled_insert_model(
+				@ForAll("scaledTrees") BST<Integer, Integer> bst,
+				@ForAll @IntRange(min = -SCALED_KEY_RANGE, max = SCALED_KEY_RANGE) int key,
+				@ForAll Integer value
+		) {
+			return insert_model(key, value, bst);
+		}
+
+		@Property(tries = 30)
+		boolean scaled_delete_model(
+				@ForAll("scaledTrees") BST<Integer, Integer> bst,
+				@ForAll @IntRange(min = -SCALED_KEY_RANGE, max = SCALED_KEY_RANGE) int key
+		) {
+			return delete_model(key, bst);
+		}
+
+		@Property(tries = 30)
+		boolean scaled_union_model(
+				@ForAll("scaledTrees") BST<Integer, Integer> bst1,
+				@ForAll("scaledTrees") BST<Integer, Integer> bst2
+		) {
+			return union_model(bst1, bst2);
+		}
+
 		// prop_InsertModel k v t = toList (insert k v t) === L.insert (k, v) (toList t)
 		@Property
 		@Disabled("Duplicate keys are not considered")
 		boolean insert_model_naive(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
 			List<Entry<Integer, Integer>> model = bst.toList();
 			model.add(new SimpleImmutableEntry<>(key, value));
@@ -552,76 +688,523 @@ class BST_Properties {
 		@Property
 		boolean insert_model(
 				@ForAll Integer key, @ForAll Integer value,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
-			List<Entry<Integer, Integer>> model = removeKey(bst.toList(), key);
-			model.add(new SimpleImmutableEntry<>(key, value));
-			List<Entry<Integer, Integer>> entries = bst.insert(key, value).toList();
-			return equalsIgnoreOrder(entries, model);
-		}
-
-		private List<Entry<Integer, Integer>> removeKey(
-				List<Entry<Integer, Integer>> model, @ForAll Integer key
-		) {
-			model.removeIf(entry -> entry.getKey().equals(key));
-			return model;
+			return model(bst).insert(key, value).matches(bst.insert(key, value));
 		}
 
 		// prop_NilModel = toList (nil :: Tree) === [ ]
 		@Example
 		boolean nil_model() {
-			return BST.nil().toList().isEmpty();
+			return SortedMapModel.nil().matches(BST.nil());
 		}
 
 		// prop_DeleteModel k t = toList (delete k t) === deleteKey k (toList t)
 		@Property
 		boolean delete_model(
 				@ForAll Integer key,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
-			List<Entry<Integer, Integer>> model = removeKey(bst.toList(), key);
-			List<Entry<Integer, Integer>> entries = bst.delete(key).toList();
-			return equalsIgnoreOrder(entries, model);
+			return model(bst).delete(key).matches(bst.delete(key));
 		}
 
 		// prop_UnionModel t t′ =
 		//   toList (union t t′) === L.sort (L.unionBy ((≡) ‘on‘ fst) (toList t) (toList t′))
 		@Property
 		boolean union_model(
-				@ForAll("trees") BST<Integer, Integer> bst1,
-				@ForAll("trees") BST<Integer, Integer> bst2
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
 		) {
-			List<Entry<Integer, Integer>> bst2Model = bst2.toList();
-			for (Entry<Integer, Integer> entry : bst1.toList()) {
-				bst2Model = removeKey(bst2Model, entry.getKey());
-			}
-			List<Entry<Integer, Integer>> model = bst1.toList();
-			model.addAll(bst2Model);
-			List<Entry<Integer, Integer>> entries = BST.union(bst1, bst2).toList();
-			return equalsIgnoreOrder(entries, model);
+			return SortedMapModel.union(model(bst1), model(bst2)).matches(BST.union(bst1, bst2));
+		}
+
+		@Property
+		boolean unionWith_model(
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
+		) {
+			return SortedMapModel.unionWith(model(bst1), model(bst2), Integer::sum)
+								 .matches(BST.unionWith(bst1, bst2, Integer::sum));
+		}
+
+		@Property
+		boolean intersection_model(
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
+		) {
+			return SortedMapModel.intersection(model(bst1), model(bst2)).matches(BST.intersection(bst1, bst2));
+		}
+
+		@Property
+		boolean difference_model(
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst1,
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst2
+		) {
+			return SortedMapModel.difference(model(bst1), model(bst2)).matches(BST.difference(bst1, bst2));
 		}
 
 		// prop_FindModel k t = find k t === L.lookup k (toList t)
 		@Property
 		boolean find_model(
 				@ForAll Integer key,
-				@ForAll("trees") BST<Integer, Integer> bst
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst
 		) {
-			List<Entry<Integer, Integer>> model = bst.toList();
-			Optional<Integer> expectedFindResult =
-					model.stream()
-						 .filter(entry -> entry.getKey().equals(key))
-						 .map(Entry::getValue)
-						 .findFirst();
-			return bst.find(key).equals(expectedFindResult);
+			return bst.find(key).equals(model(bst).find(key));
+		}
+
+		// The model of a tree is a sorted map, see SortedMapModel.
+		// Unlike a list of entries it takes care of duplicate keys and order by itself.
+		private SortedMapModel<Integer, Integer> model(BST<Integer, Integer> bst) {
+			return SortedMapModel.of(bst);
+		}
+
+	}
+
+	@Group
+	class Bulk_Construction {
+
+		@Property
+		boolean fromEntries_is_equivalent_to_inserting_all(
+				@ForAll List<@From("entries") Entry<Integer, Integer>> entries
+		) {
+			BST<Integer, Integer> inserted = BST.nil();
+			for (Entry<Integer, Integer> entry : entries) {
+				inserted = inserted.insert(entry.getKey(), entry.getValue());
+			}
+			BST<Integer, Integer> built = BST.fromEntries(entries);
+			return isValid(built) && equivalent(built, inserted);
+		}
+
+		@Property
+		boolean fromSorted_is_perfectly_balanced(@ForAll("trees") BST<Integer, Integer> bst) {
+			List<Entry<Integer, Integer>> sorted = bst.toList();
+			sorted.sort(Entry.comparingByKey());
+			BST<Integer, Integer> built = BST.fromSorted(sorted.iterator());
+			int minimalHeight = 32 - Integer.numberOfLeadingZeros(bst.size());
+			return isValid(built) && isBalanced(built)
+						   && built.height() == minimalHeight
+						   && equivalent(built, bst);
+		}
+
+		@Provide
+		Arbitrary<Entry<Integer, Integer>> entries() {
+			return Combinators.combine(keys(), Arbitraries.integers()).as(SimpleImmutableEntry::new);
+		}
+	}
+
+	@Group
+	class Split_And_Join {
+
+		@Property
+		boolean split_partitions_keys(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer key
+		) {
+			BST.Split<Integer, Integer> split = bst.split(key);
+			return isValid(split.left()) && isValid(split.right())
+						   && split.left().keys().stream().allMatch(k -> k < key)
+						   && split.right().keys().stream().allMatch(k -> k > key)
+						   && split.entry().map(Entry::getValue).equals(bst.find(key))
+						   && split.left().size() + split.right().size() + (split.entry().isPresent() ? 1 : 0) == bst.size();
+		}
+
+		@Property
+		boolean join_after_split_is_equivalent(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer key, @ForAll Integer value
+		) {
+			BST.Split<Integer, Integer> split = bst.split(key);
+			BST<Integer, Integer> joined = BST.join(split.left(), new SimpleImmutableEntry<>(key, value), split.right());
+			return isValid(joined) && equivalent(joined, bst.insert(key, value));
+		}
+
+		@Property
+		boolean join_of_mixed_modes_has_mode_of_left(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer key, @ForAll Integer value,
+				@ForAll boolean leftBalanced
+		) {
+			BST.Split<Integer, Integer> split = bst.split(key);
+			BST<Integer, Integer> left = leftBalanced ? BST.fromSorted(split.left().iterator()) : split.left();
+			BST<Integer, Integer> right = leftBalanced ? split.right() : BST.fromSorted(split.right().iterator());
+			BST<Integer, Integer> joined = BST.join(left, new SimpleImmutableEntry<>(key, value), right);
+			return isValid(joined) && joined.isSelfBalancing() == leftBalanced
+						   && (!leftBalanced || isBalanced(joined))
+						   && equivalent(joined, bst.insert(key, value));
+		}
+
+		@Property
+		boolean balanced_join_stays_balanced(
+				@ForAll("keys") Integer key, @ForAll Integer value,
+				@ForAll @Size(max = 300) List<Integer> smaller,
+				@ForAll @Size(max = 30) List<Integer> larger
+		) {
+			Assume.that(key > Integer.MIN_VALUE + 10_001 && key < Integer.MAX_VALUE - 10_001);
+			BST<Integer, Integer> left = BST.balancedNil();
+			for (Integer k : smaller) {
+				left = left.insert(key - Math.abs(k % 10_000) - 1, k);
+			}
+			BST<Integer, Integer> right = BST.balancedNil();
+			for (Integer k : larger) {
+				right = right.insert(key + Math.abs(k % 10_000) + 1, k);
+			}
+			BST<Integer, Integer> joined = BST.join(left, new SimpleImmutableEntry<>(key, value), right);
+			return isValid(joined) && isBalanced(joined) && joined.size() == left.size() + right.size() + 1;
+		}
+	}
+
+	@Group
+	class Order_Statistics {
+
+		@Property
+		boolean size_is_number_of_keys(@ForAll("trees") BST<Integer, Integer> bst) {
+			return bst.size() == bst.keys().size();
+		}
+
+		@Property
+		boolean rank_counts_smaller_keys(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer key
+		) {
+			long smaller = bst.keys().stream().filter(k -> k < key).count();
+			return bst.rank(key) == smaller;
+		}
+
+		@Property
+		boolean select_is_inverse_of_rank(@ForAll("trees") BST<Integer, Integer> bst) {
+			for (int i = 0; i < bst.size(); i++) {
+				Entry<Integer, Integer> selected = bst.select(i);
+				if (bst.rank(selected.getKey()) != i) {
+					return false;
+				}
+				if (!bst.find(selected.getKey()).equals(Optional.of(selected.getValue()))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Property
+		boolean countBetween_counts_keys_in_range(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer lo,
+				@ForAll("keys") Integer hi
+		) {
+			long expected = bst.keys().stream().filter(k -> k >= lo && k < hi).count();
+			return bst.countBetween(lo, hi) == expected;
+		}
+	}
+
+	@Group
+	class Navigation {
+
+		@Property
+		boolean navigation_agrees_with_sorted_map(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer key
+		) {
+			TreeMap<Integer, Integer> model = new TreeMap<>();
+			bst.forEach(entry -> model.put(entry.getKey(), entry.getValue()));
+			return bst.floor(key).equals(Optional.ofNullable(model.floorEntry(key)).map(SimpleImmutableEntry::new))
+						   && bst.lower(key).equals(Optional.ofNullable(model.lowerEntry(key)).map(SimpleImmutableEntry::new))
+						   && bst.ceiling(key).equals(Optional.ofNullable(model.ceilingEntry(key)).map(SimpleImmutableEntry::new))
+						   && bst.higher(key).equals(Optional.ofNullable(model.higherEntry(key)).map(SimpleImmutableEntry::new))
+						   && bst.first().equals(Optional.ofNullable(model.firstEntry()).map(SimpleImmutableEntry::new))
+						   && bst.last().equals(Optional.ofNullable(model.lastEntry()).map(SimpleImmutableEntry::new));
+		}
+
+		@Property
+		boolean range_yields_entries_between_bounds(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer lo, @ForAll("keys") Integer hi
+		) {
+			List<Entry<Integer, Integer>> ranged = new ArrayList<>();
+			bst.range(lo, hi).forEachRemaining(ranged::add);
+			List<Entry<Integer, Integer>> head = new ArrayList<>();
+			bst.headRange(hi).forEachRemaining(head::add);
+			List<Entry<Integer, Integer>> tail = new ArrayList<>();
+			bst.tailRange(lo).forEachRemaining(tail::add);
+
+			return ranged.equals(filter(bst, key -> key >= lo && key < hi))
+						   && head.equals(filter(bst, key -> key < hi))
+						   && tail.equals(filter(bst, key -> key >= lo));
+		}
+
+		@Property
+		boolean subTree_contains_entries_between_bounds(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer lo, @ForAll("keys") Integer hi
+		) {
+			BST<Integer, Integer> subTree = bst.subTree(lo, hi);
+			return isValid(subTree)
+						   && subTree.toList().equals(filter(bst, key -> key >= lo && key < hi))
+						   && subTree.size() == bst.countBetween(lo, hi);
+		}
+
+		@Property
+		boolean subTree_of_balanced_tree_is_balanced(
+				@ForAll("balancedTrees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer lo, @ForAll("keys") Integer hi
+		) {
+			BST<Integer, Integer> subTree = bst.subTree(lo, hi);
+			return isValid(subTree) && isBalanced(subTree) && subTree.isSelfBalancing();
+		}
+
+		private List<Entry<Integer, Integer>> filter(BST<Integer, Integer> bst, Predicate<Integer> inRange) {
+			return bst.stream().filter(entry -> inRange.test(entry.getKey())).collect(Collectors.toList());
+		}
+	}
+
+	@Group
+	class Iteration {
+
+		@Property
+		boolean iteration_is_in_ascending_key_order(@ForAll("trees") BST<Integer, Integer> bst) {
+			List<Integer> sorted = new ArrayList<>(bst.keys());
+			sorted.sort(Comparator.naturalOrder());
+			List<Integer> iterated = new ArrayList<>();
+			bst.iterator().forEachRemaining(entry -> iterated.add(entry.getKey()));
+			return iterated.equals(sorted) && bst.keys().equals(sorted);
+		}
+
+		@Property
+		boolean parallel_stream_is_same_as_sequential_stream(@ForAll("trees") BST<Integer, Integer> bst) {
+			List<Entry<Integer, Integer>> sequential = bst.stream().collect(Collectors.toList());
+			List<Entry<Integer, Integer>> parallel = bst.parallelStream().collect(Collectors.toList());
+			return parallel.equals(sequential) && sequential.equals(bst.toList());
+		}
+
+		@Property
+		boolean splitting_covers_all_entries_in_order(
+				@ForAll("trees") BST<Integer, Integer> bst,
+				@ForAll @IntRange(max = 3) int advanceBeforeSplit
+		) {
+			Spliterator<Entry<Integer, Integer>> spliterator = bst.spliterator();
+			List<Entry<Integer, Integer>> collected = new ArrayList<>();
+			for (int i = 0; i < advanceBeforeSplit; i++) {
+				spliterator.tryAdvance(collected::add);
+			}
+			collectSplitting(spliterator, collected);
+			return collected.equals(bst.toList());
+		}
+
+		private void collectSplitting(Spliterator<Entry<Integer, Integer>> spliterator, List<Entry<Integer, Integer>> collected) {
+			long size = spliterator.estimateSize();
+			Spliterator<Entry<Integer, Integer>> prefix = spliterator.trySplit();
+			if (prefix == null) {
+				spliterator.forEachRemaining(collected::add);
+				return;
+			}
+			if (prefix.estimateSize() + spliterator.estimateSize() != size) {
+				throw new AssertionError("Split sizes do not add up");
+			}
+			collectSplitting(prefix, collected);
+			collectSplitting(spliterator, collected);
+		}
+	}
+
+	@Group
+	class Serialization {
+
+		@Property
+		boolean serialization_preserves_structure(@ForAll("trees") BST<Integer, Integer> bst) throws Exception {
+			BST<Integer, Integer> copy = roundTrip(bst);
+			return copy.equals(bst) && copy.isSelfBalancing() == bst.isSelfBalancing();
+		}
+
+		@Property
+		boolean serialization_preserves_balanced_mode(@ForAll @Size(max = 500) List<Integer> keys) throws Exception {
+			BST<Integer, Integer> bst = BST.balancedNil();
+			for (Integer key : keys) {
+				bst = bst.insert(key, key);
+			}
+			BST<Integer, Integer> copy = roundTrip(bst);
+			return copy.equals(bst) && copy.isSelfBalancing() && isBalanced(copy.insert(0, 0));
+		}
+	}
+
+	@Group
+	class Self_Balancing {
+
+		@Property
+		boolean arbitrary_balanced(@ForAll("balancedTrees") BST<Integer, Integer> bst) {
+			return isValid(bst) && isBalanced(bst);
+		}
+
+		@Property
+		boolean insert_balanced(
+				@ForAll("balancedTrees") BST<Integer, Integer> bst,
+				@ForAll Integer key
+		) {
+			BST<Integer, Integer> inserted = bst.insert(key, 42);
+			return isValid(inserted) && isBalanced(inserted) && inserted.isSelfBalancing();
+		}
+
+		@Property
+		boolean delete_balanced(
+				@ForAll("balancedTrees") BST<Integer, Integer> bst,
+				@ForAll("keys") Integer key
+		) {
+			BST<Integer, Integer> deleted = bst.delete(key);
+			return isValid(deleted) && isBalanced(deleted) && deleted.isSelfBalancing();
+		}
+
+		@Property
+		boolean union_of_mixed_modes_has_mode_of_first_tree(
+				@ForAll("trees") BST<Integer, Integer> unbalanced,
+				@ForAll("balancedTrees") BST<Integer, Integer> balanced
+		) {
+			BST<Integer, Integer> balancedFirst = BST.union(balanced, unbalanced);
+			BST<Integer, Integer> unbalancedFirst = BST.union(unbalanced, balanced);
+			return isValid(balancedFirst) && isBalanced(balancedFirst) && balancedFirst.isSelfBalancing()
+						   && isValid(unbalancedFirst) && !unbalancedFirst.isSelfBalancing()
+						   && SortedMapModel.union(SortedMapModel.of(balanced), SortedMapModel.of(unbalanced)).matches(balancedFirst)
+						   && SortedMapModel.union(SortedMapModel.of(unbalanced), SortedMapModel.of(balanced)).matches(unbalancedFirst);
+		}
+
+		@Property
+		boolean union_balanced(
+				@ForAll("balancedTrees") BST<Integer, Integer> bst,
+				@ForAll("balancedTrees") BST<Integer, Integer> other
+		) {
+			BST<Integer, Integer> union = BST.union(bst, other);
+			return isValid(union) && isBalanced(union);
+		}
+
+		@Property(tries = 100)
+		boolean height_is_logarithmic_for_all_insertion_orders(
+				@ForAll @Size(max = 2000) @UniqueElements List<Integer> keys,
+				@ForAll InsertionOrder order
+		) {
+			BST<Integer, Integer> bst = BST.balancedNil();
+			for (Integer key : order.arrange(keys)) {
+				bst = bst.insert(key, key);
+			}
+			Statistics.label("order").collect(order);
+			return bst.size() == keys.size() && bst.height() <= maxBalancedHeight(keys.size());
 		}
+	}
+
+	@Group
+	class Parallel_Set_Operations {
 
-		private boolean equalsIgnoreOrder(List<Entry<Integer, Integer>> list1, List<Entry<Integer, Integer>> list2) {
-			list1.sort(Comparator.comparing(Entry::getKey));
-			list2.sort(Comparator.comparing(Entry::getKey));
-			return list1.equals(list2);
+		@Property(tries = 20)
+		boolean parallel_union_equals_sequential_union(
+				@ForAll("largeTrees") BST<Integer, Integer> bst1,
+				@ForAll("largeTrees") BST<Integer, Integer> bst2
+		) {
+			return BST.parallelUnion(bst1, bst2).equals(BST.union(bst1, bst2));
 		}
 
+		@Property(tries = 20)
+		boolean parallel_intersection_equals_sequential_intersection(
+				@ForAll("largeTrees") BST<Integer, Integer> bst1,
+				@ForAll("largeTrees") BST<Integer, Integer> bst2
+		) {
+			return BST.parallelIntersection(bst1, bst2).equals(BST.intersection(bst1, bst2));
+		}
+
+		@Property(tries = 20)
+		boolean parallel_difference_equals_sequential_difference(
+				@ForAll("largeTrees") BST<Integer, Integer> bst1,
+				@ForAll("largeTrees") BST<Integer, Integer> bst2
+		) {
+			return BST.parallelDifference(bst1, bst2).equals(BST.difference(bst1, bst2));
+		}
+
+		@Property
+		boolean intersection_and_difference_partition_first_tree(
+				@ForAll("trees") BST<Integer, Integer> bst1,
+				@ForAll("trees") BST<Integer, Integer> bst2
+		) {
+			BST<Integer, Integer> intersection = BST.intersection(bst1, bst2);
+			BST<Integer, Integer> difference = BST.difference(bst1, bst2);
+			return isValid(intersection) && isValid(difference)
+						   && intersection.keys().stream().allMatch(key -> bst2.find(key).isPresent())
+						   && difference.keys().stream().noneMatch(key -> bst2.find(key).isPresent())
+						   && equivalent(BST.union(intersection, difference), bst1);
+		}
+
+		// Trees above the sequential cutoff in both modes, with keys from a range that makes overlaps likely
+		@Provide
+		Arbitrary<BST<Integer, Integer>> largeTrees() {
+			Arbitrary<List<Integer>> keyLists = Arbitraries.integers().between(0, 100_000).list().ofMaxSize(30_000);
+			return Combinators.combine(keyLists, Arbitraries.of(true, false)).as((keys, balanced) -> {
+				BST<Integer, Integer> bst = balanced ? BST.balancedNil() : BST.nil();
+				for (Integer key : keys) {
+					bst = bst.insert(key, key);
+				}
+				return bst;
+			});
+		}
+	}
+
+	@Group
+	class Transient_Building {
+
+		@Property
+		boolean builder_produces_same_tree_as_persistent_operations(
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst,
+				@ForAll List<@From("operations") Tuple2<Integer, Integer>> operations
+		) {
+			BST<Integer, Integer> persistent = bst;
+			BST.Builder<Integer, Integer> builder = bst.asTransient();
+			for (Tuple2<Integer, Integer> operation : operations) {
+				if (operation.get2() == null) {
+					persistent = persistent.delete(operation.get1());
+					builder.delete(operation.get1());
+				} else {
+					persistent = persistent.insert(operation.get1(), operation.get2());
+					builder.insert(operation.get1(), operation.get2());
+				}
+			}
+			BST<Integer, Integer> built = builder.persistent();
+			return isValid(built) && built.equals(persistent) && built.hashCode() == persistent.hashCode();
+		}
+
+		@Property
+		boolean builder_leaves_source_tree_unchanged(
+				@ForAll("treesInBothModes") BST<Integer, Integer> bst,
+				@ForAll List<@From("operations") Tuple2<Integer, Integer>> operations
+		) {
+			List<Entry<Integer, Integer>> entriesBefore = bst.toList();
+			String shapeBefore = bst.toString();
+			BST.Builder<Integer, Integer> builder = bst.asTransient();
+			for (Tuple2<Integer, Integer> operation : operations) {
+				if (operation.get2() == null) {
+					builder.delete(operation.get1());
+				} else {
+					builder.insert(operation.get1(), operation.get2());
+				}
+			}
+			builder.persistent();
+			return bst.toList().equals(entriesBefore) && bst.toString().equals(shapeBefore);
+		}
+
+		// A null value stands for deleting the key
+		@Provide
+		Arbitrary<Tuple2<Integer, Integer>> operations() {
+			return Combinators.combine(keys(), Arbitraries.integers().injectNull(0.3)).as(Tuple::of);
+		}
+	}
+
+	enum InsertionOrder {
+		SORTED, REVERSED, RANDOM;
+
+		List<Integer> arrange(List<Integer> keys) {
+			List<Integer> arranged = new ArrayList<>(keys);
+			switch (this) {
+				case SORTED:
+					Collections.sort(arranged);
+					break;
+				case REVERSED:
+					arranged.sort(Comparator.reverseOrder());
+					break;
+				default:
+					break;
+			}
+			return arranged;
+		}
 	}
 
 	// prop_Measure k t =
@@ -631,29 +1214,103 @@ class BST_Properties {
 	//     if (all (>=􏰁 k) (keys t)) then "at start" else
 	//     if (all (􏰀<= k) (keys t)) then "at end" else "middle") $
 	//   True
-	@Property(tries = 1_000_000)
-	@Disabled("takes about 5 mins to run")
-	void measure(
-			// @ForAll Integer key,
-			@ForAll("keys") Integer key,
-			@ForAll("trees") BST<Integer, Integer> bst
-	) {
-		List<Integer> keys = bst.keys();
-		String frequency = keys.contains(key) ? "present" : "absent";
-		Statistics.label("frequency").collect(frequency);
+	// Runs with ./gradlew measure only, with the tries spread over all cores.
+	// -PmeasureTries=1000000 runs as many tries as the original property, -PmeasureSeed=<seed> repeats a run.
+	@Example
+	@Tag("measure")
+	void measure(Reporter reporter) {
+		int tries = Integer.getInteger("htsi.measure.tries", 100_000);
+		long seed = Long.getLong("htsi.measure.seed", new Random().nextLong());
+		BSTMetrics.reset();
+		Map<String, Map<Object, Long>> counts = ShardedStatistics.collect(
+				Combinators.combine(keys(), trees()).as(Tuple::of), tries, seed,
+				(sample, labels) -> collectMeasureLabels(sample.get1(), sample.get2(), labels)
+		);
+
+		reporter.publishValue("seed", String.valueOf(seed));
+		counts.forEach((label, values) -> reporter.publishValue(label, ShardedStatistics.format(values)));
+		if (BSTMetrics.ENABLED) {
+			// Shards count into the same counters, so only totals are meaningful here.
+			// Comparisons and allocations include building the trees.
+			BSTMetrics work = BSTMetrics.snapshot(BST.nil());
+			reporter.publishValue("metrics", work.toString());
+			reporter.publishValue("average find path length", String.format("%.2f", work.averageFindPathLength()));
+		}
+	}
+
+	// Only looks at the path to key and the two outermost paths, instead of scanning all keys
+	private void collectMeasureLabels(Integer key, BST<Integer, Integer> bst, ShardedStatistics.Labels labels) {
+		boolean present = bst.find(key).isPresent();
+		labels.collect("frequency", present ? "present" : "absent");
 
 		String position =
 				bst.isLeaf() ? "empty" :
-						keys.equals(Collections.singletonList(key)) ? "just key" :
-						keys.stream().allMatch(k -> k.compareTo(key) >= 0) ? "at start" :
-						keys.stream().allMatch(k -> k.compareTo(key) <= 0) ? "at end" :
+						bst.size() == 1 && present ? "just key" :
+						bst.first().get().getKey().compareTo(key) >= 0 ? "at start" :
+						bst.last().get().getKey().compareTo(key) <= 0 ? "at end" :
 						"middle";
-		Statistics.label("position").collect(position);
+		labels.collect("position", position);
 
 		String size = bst.isEmpty() ? "empty" :
 				bst.size() < 10 ? "< 10" :
 				bst.size() < 100 ? "10 >= x < 100" : ">= 100";
-		Statistics.label("size").collect(size);
+		labels.collect("size", size);
+	}
+
+	// The shape of a tree decides what a find costs, which measure does not show.
+	// Checks that the shape is consistent and labels the expected depth of a successful find.
+	@Property
+	boolean measure_shape(@ForAll("trees") BST<Integer, Integer> bst) {
+		BSTShape shape = shape(bst);
+		Statistics.label("average search depth").collect(searchDepth(shape));
+		Statistics.label("average search depth / log2 size").collect(searchDepthRatio(shape));
+		return consistent(bst, shape);
+	}
+
+	@Property(tries = 300)
+	boolean search_depth_for_insertion_orders(
+			@ForAll @Size(min = 100, max = 2000) @UniqueElements List<Integer> keys,
+			@ForAll InsertionOrder order,
+			@ForAll boolean selfBalancing
+	) {
+		BST.Builder<Integer, Integer> builder = (selfBalancing ? BST.<Integer, Integer>balancedNil() : BST.<Integer, Integer>nil()).asTransient();
+		order.arrange(keys).forEach(key -> builder.insert(key, key));
+		BST<Integer, Integer> bst = builder.persistent();
+		BSTShape shape = shape(bst);
+		Statistics.label("average search depth / log2 size").collect(
+				order, selfBalancing ? "self-balancing" : "unbalanced", searchDepthRatio(shape)
+		);
+		return consistent(bst, shape);
+	}
+
+	private boolean consistent(BST<Integer, Integer> bst, BSTShape shape) {
+		long nodes = shape.balanceFactors().values().stream().mapToLong(Long::longValue).sum();
+		int minDepth = bst.isLeaf() ? 0 : 1;
+		return shape.size() == bst.size()
+					   && shape.height() == bst.height()
+					   && shape.maxLeafDepth() == bst.height()
+					   && shape.minLeafDepth() >= minDepth && shape.minLeafDepth() <= shape.maxLeafDepth()
+					   && nodes == bst.size()
+					   && shape.averageSearchDepth() >= minDepth && shape.averageSearchDepth() <= bst.height();
+	}
+
+	private String searchDepth(BSTShape shape) {
+		double depth = shape.averageSearchDepth();
+		return depth == 0 ? "empty" :
+				depth < 2 ? "< 2" :
+				depth < 4 ? "2 >= x < 4" :
+				depth < 8 ? "4 >= x < 8" : ">= 8";
+	}
+
+	// About 1 for a balanced tree, up to size / (2 log2 size) for a degenerate one
+	private String searchDepthRatio(BSTShape shape) {
+		if (shape.size() < 2) {
+			return "size < 2";
+		}
+		double ratio = shape.averageSearchDepth() / (Math.log(shape.size()) / Math.log(2));
+		return ratio < 1.5 ? "< 1.5" :
+				ratio < 3 ? "1.5 >= x < 3" :
+				ratio < 10 ? "3 >= x < 10" : ">= 10";
 	}
 
 	@Property(afterFailure = AfterFailureMode.RANDOM_SEED)
@@ -678,9 +1335,26 @@ class BST_Properties {
 				Combinators.combine(keys, values).as(Tuple::of).list().uniqueElements(Tuple1::get1);
 
 		// This could be implemented as streaming and reducing
-		// but that'd probably be less understandable
+		// but that'd probably be less understandable.
+		// The builder creates the same tree as inserting one entry after the other,
+		// without copying the search path for every entry.
+		return keysAndValues.map(keyValueList -> {
+			BST.Builder<Integer, Integer> bst = BST.<Integer, Integer>nil().asTransient();
+			for (Tuple2<Integer, Integer> kv : keyValueList) {
+				bst.insert(kv.get1(), kv.get2());
+			}
+			return bst.persistent();
+		});
+	}
+
+	@Provide
+	Arbitrary<BST<Integer, Integer>> balancedTrees() {
+		Arbitrary<List<Tuple2<Integer, Integer>>> keysAndValues =
+				Combinators.combine(keys(), Arbitraries.integers()).as(Tuple::of)
+						   .list().uniqueElements(Tuple1::get1);
+
 		return keysAndValues.map(keyValueList -> {
-			BST<Integer, Integer> bst = BST.nil();
+			BST<Integer, Integer> bst = BST.balancedNil();
 			for (Tuple2<Integer, Integer> kv : keyValueList) {
 				bst = bst.insert(kv.get1(), kv.get2());
 			}
@@ -688,12 +1362,29 @@ class BST_Properties {
 		});
 	}
 
+	// For properties that only look at entries, which must hold whatever the mode
+	@Provide
+	Arbitrary<BST<Integer, Integer>> treesInBothModes() {
+		return Arbitraries.oneOf(Arrays.asList(trees(), balancedTrees()));
+	}
+
+	static final int SCALED_KEY_RANGE = 100_000;
+
+	// Degenerate trees are kept smaller because every operation on them takes O(n)
+	// and a split-based union of two of them O(n^2)
+	@Provide
+	Arbitrary<BST<Integer, Integer>> scaledTrees() {
+		return Arbitraries.oneOf(Arrays.asList(
+				BSTArbitraries.trees(1_000, 50_000, -SCALED_KEY_RANGE, SCALED_KEY_RANGE,
+						BSTArbitraries.Shape.BALANCED, BSTArbitraries.Shape.RANDOM_INSERTION),
+				BSTArbitraries.trees(100, 2_000, -SCALED_KEY_RANGE, SCALED_KEY_RANGE,
+						BSTArbitraries.Shape.LEFT_DEGENERATE, BSTArbitraries.Shape.RIGHT_DEGENERATE)
+		));
+	}
+
 	@Provide
 	Arbitrary<Integer> keys() {
-		return Arbitraries.oneOf(
-				Arbitraries.integers().between(-25, 25),
-				Arbitraries.integers()
-		);
+		return BSTArbitraries.keys();
 	}
 
 }
@@ -0,0 +1,268 @@
+package htsi.bst;
+
+import java.util.AbstractMap.*;
+import java.util.*;
+import java.util.Map.*;
+
+import net.jqwik.api.*;
+import net.jqwik.api.stateful.*;
+import net.jqwik.api.statistics.Statistics;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Differential testing of BST against java.util.TreeMap over long sequences of interleaved operations.
+ */
+class BST_Stateful_Properties {
+
+	private static final int KEY_RANGE = 1_000;
+
+	@Property(tries = 200)
+	void bst_agrees_with_treeMap(
+			@ForAll("actions") ActionSequence<Subject> actions,
+			@ForAll boolean selfBalancing
+	) {
+		Subject subject = actions.withInvariant("same size", Subject::checkSize)
+								 .run(new Subject(selfBalancing));
+		subject.checkEntries();
+		Statistics.label("mode").collect(selfBalancing ? "self-balancing" : "unbalanced");
+		Statistics.label("max height").collect(
+				subject.maxHeight < 10 ? "< 10" : subject.maxHeight < 100 ? "10 >= x < 100" : ">= 100"
+		);
+	}
+
+	// A short random session on top of a degenerate start. Size and updated keys are checked against the model
+	// after every operation, all entries at the end.
+	@Example
+	void session_matches_model(Reporter reporter) {
+		long seed = new Random().nextLong();
+		reporter.publishValue("seed", String.valueOf(seed));
+		session(new Subject(true), 5_000, new Random(seed));
+		session(new Subject(false), 500, new Random(seed));
+	}
+
+	// Runs many more operations than session_matches_model and reports throughput and height.
+	// Only runs with ./gradlew measure, -PsoakOperations=10000000 runs a longer session.
+	@Example
+	@Tag("measure")
+	void soak(Reporter reporter) {
+		int operations = Integer.getInteger("htsi.soak.operations", 200_000);
+		long seed = new Random().nextLong();
+		reporter.publishValue("seed", String.valueOf(seed));
+		soak(new Subject(true), operations, new Random(seed), reporter);
+		// Every operation on a degenerate tree takes O(height), so the unbalanced session is shorter
+		soak(new Subject(false), operations / 10, new Random(seed), reporter);
+	}
+
+	private void soak(Subject subject, int operations, Random random, Reporter reporter) {
+		long nanos = session(subject, operations, random);
+		String mode = subject.selfBalancing ? "self-balancing" : "unbalanced";
+		reporter.publishValue(mode + " ops/s", String.valueOf(operations * 1_000_000_000L / Math.max(1, nanos)));
+		reporter.publishValue(mode + " max height", String.valueOf(subject.maxHeight));
+	}
+
+	// Returns the nanoseconds the random operations took
+	private long session(Subject subject, int operations, Random random) {
+		// A degenerate start makes paths deep enough to overflow any recursive implementation
+		new InsertRun(-5_000, 5_000).run(subject);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			int key = random.nextInt(2 * KEY_RANGE) - KEY_RANGE;
+			int dice = random.nextInt(100);
+			Action<Subject> action =
+					dice < 40 ? new Insert(key, random.nextInt()) :
+					dice < 60 ? new Delete(key) :
+					dice < 65 ? new InsertRun(key, random.nextInt(100)) :
+					dice < 70 ? new Union(randomEntries(random), random.nextBoolean()) :
+					new Find(key);
+			action.run(subject);
+			assertThat(subject.checkSize()).isTrue();
+			if (i % 10_000 == 0) {
+				subject.checkEntries();
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		subject.checkEntries();
+		return nanos;
+	}
+
+	private List<Entry<Integer, Integer>> randomEntries(Random random) {
+		List<Entry<Integer, Integer>> entries = new ArrayList<>();
+		int count = random.nextInt(20);
+		for (int i = 0; i < count; i++) {
+			entries.add(new SimpleImmutableEntry<>(random.nextInt(2 * KEY_RANGE) - KEY_RANGE, random.nextInt()));
+		}
+		return entries;
+	}
+
+	@Provide
+	Arbitrary<ActionSequence<Subject>> actions() {
+		Arbitrary<Integer> keys = Arbitraries.integers().between(-KEY_RANGE, KEY_RANGE);
+		Arbitrary<Integer> values = Arbitraries.integers();
+		Arbitrary<Entry<Integer, Integer>> entries = Combinators.combine(keys, values).as(SimpleImmutableEntry::new);
+		return Arbitraries.sequences(Arbitraries.frequencyOf(
+				Tuple.of(8, Combinators.combine(keys, values).as(Insert::new)),
+				Tuple.of(4, keys.map(Delete::new)),
+				Tuple.of(1, Combinators.combine(keys, Arbitraries.integers().between(0, 200)).as(InsertRun::new)),
+				Tuple.of(1, Combinators.combine(entries.list().ofMaxSize(20), Arbitraries.of(true, false)).as(Union::new)),
+				Tuple.of(6, keys.map(Find::new))
+		)).ofSize(1_000);
+	}
+
+	// The tree under test and TreeMap as its model, updated side by side
+	static class Subject {
+		private final boolean selfBalancing;
+		private BST<Integer, Integer> bst;
+		private final TreeMap<Integer, Integer> model = new TreeMap<>();
+		private int maxHeight = 0;
+
+		Subject(boolean selfBalancing) {
+			this.selfBalancing = selfBalancing;
+			this.bst = empty();
+		}
+
+		private BST<Integer, Integer> empty() {
+			return selfBalancing ? BST.balancedNil() : BST.nil();
+		}
+
+		private void update(BST<Integer, Integer> updated) {
+			bst = updated;
+			maxHeight = Math.max(maxHeight, bst.height());
+		}
+
+		private boolean checkSize() {
+			return bst.size() == model.size();
+		}
+
+		// O(n), so only called at the end of a sequence and now and then during a soak
+		private void checkEntries() {
+			assertThat(BSTUtils.isValid(bst)).isTrue();
+			assertThat(bst.toList()).containsExactlyElementsOf(model.entrySet());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Subject[size=%s, height=%s]", bst.size(), bst.height());
+		}
+	}
+
+	static class Insert implements Action<Subject> {
+		private final int key;
+		private final int value;
+
+		Insert(int key, int value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public Subject run(Subject subject) {
+			subject.update(subject.bst.insert(key, value));
+			subject.model.put(key, value);
+			assertThat(subject.bst.find(key)).contains(value);
+			return subject;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("insert(%s, %s)", key, value);
+		}
+	}
+
+	static class Delete implements Action<Subject> {
+		private final int key;
+
+		Delete(int key) {
+			this.key = key;
+		}
+
+		@Override
+		public Subject run(Subject subject) {
+			subject.update(subject.bst.delete(key));
+			subject.model.remove(key);
+			assertThat(subject.bst.find(key)).isEmpty();
+			return subject;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("delete(%s)", key);
+		}
+	}
+
+	// Ascending keys build long paths in unbalanced trees
+	static class InsertRun implements Action<Subject> {
+		private final int start;
+		private final int length;
+
+		InsertRun(int start, int length) {
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public Subject run(Subject subject) {
+			for (int key = start; key < start + length; key++) {
+				subject.update(subject.bst.insert(key, key));
+				subject.model.put(key, key);
+			}
+			return subject;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("insertRun(%s, %s)", start, length);
+		}
+	}
+
+	static class Union implements Action<Subject> {
+		private final List<Entry<Integer, Integer>> entries;
+		private final boolean otherFirst;
+
+		Union(List<Entry<Integer, Integer>> entries, boolean otherFirst) {
+			this.entries = entries;
+			this.otherFirst = otherFirst;
+		}
+
+		@Override
+		public Subject run(Subject subject) {
+			BST<Integer, Integer> other = subject.empty();
+			for (Entry<Integer, Integer> entry : entries) {
+				other = other.insert(entry.getKey(), entry.getValue());
+			}
+			if (otherFirst) {
+				subject.update(BST.union(other, subject.bst));
+				other.forEach(entry -> subject.model.put(entry.getKey(), entry.getValue()));
+			} else {
+				subject.update(BST.union(subject.bst, other));
+				other.forEach(entry -> subject.model.putIfAbsent(entry.getKey(), entry.getValue()));
+			}
+			return subject;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("union(%s, otherFirst=%s)", entries, otherFirst);
+		}
+	}
+
+	static class Find implements Action<Subject> {
+		private final int key;
+
+		Find(int key) {
+			this.key = key;
+		}
+
+		@Override
+		public Subject run(Subject subject) {
+			assertThat(subject.bst.find(key)).isEqualTo(Optional.ofNullable(subject.model.get(key)));
+			return subject;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("find(%s)", key);
+		}
+	}
+}
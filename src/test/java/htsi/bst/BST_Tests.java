@@ -1,6 +1,8 @@
 package htsi.bst;
 
+import java.io.*;
 import java.util.AbstractMap.*;
+import java.util.*;
 
 import net.jqwik.api.*;
 
@@ -166,4 +168,313 @@ class BST_Tests {
 		BST<Integer, String> one = bst.insert(1, "one").insert(1, "two");
 		assertThat(BSTUtils.isValid(one)).isTrue();
 	}
+
+	@Example
+	void balanced_tree_stays_flat_for_sorted_keys() {
+		BST<Integer, String> ascending = BST.balancedNil();
+		BST<Integer, String> descending = BST.balancedNil();
+		for (int i = 0; i < 10_000; i++) {
+			ascending = ascending.insert(i, "value");
+			descending = descending.insert(-i, "value");
+		}
+		assertThat(ascending.size()).isEqualTo(10_000);
+		assertThat(ascending.height()).isLessThanOrEqualTo(BSTUtils.maxBalancedHeight(10_000));
+		assertThat(descending.height()).isLessThanOrEqualTo(BSTUtils.maxBalancedHeight(10_000));
+		assertThat(BSTUtils.isBalanced(ascending)).isTrue();
+
+		for (int i = 0; i < 10_000; i += 2) {
+			ascending = ascending.delete(i);
+		}
+		assertThat(ascending.size()).isEqualTo(5_000);
+		assertThat(BSTUtils.isBalanced(ascending)).isTrue();
+		assertThat(ascending.find(1)).isPresent();
+		assertThat(ascending.find(2)).isNotPresent();
+	}
+
+	@Example
+	void order_statistics() {
+		BST<Integer, String> updated =
+				bst.insert(10, "ten")
+				   .insert(1, "one")
+				   .insert(20, "twenty");
+
+		assertThat(updated.rank(1)).isEqualTo(0);
+		assertThat(updated.rank(15)).isEqualTo(2);
+		assertThat(updated.rank(100)).isEqualTo(3);
+		assertThat(updated.select(0)).isEqualTo(new SimpleEntry<>(1, "one"));
+		assertThat(updated.select(2)).isEqualTo(new SimpleEntry<>(20, "twenty"));
+		assertThat(updated.countBetween(1, 20)).isEqualTo(2);
+		assertThat(updated.countBetween(20, 1)).isEqualTo(0);
+		assertThatThrownBy(() -> updated.select(3)).isInstanceOf(IndexOutOfBoundsException.class);
+	}
+
+	@Example
+	void union_of_range_separated_bsts_attaches_at_the_edge() {
+		BST<Integer, String> low =
+				bst.insert(2, "two")
+				   .insert(1, "one")
+				   .insert(3, "three");
+		BST<Integer, String> high =
+				bst.insert(5, "five")
+				   .insert(4, "four");
+
+		BST<Integer, String> union = BST.union(low, high);
+		assertThat(union.key()).isEqualTo(2);
+		assertThat(union.keys()).containsExactlyInAnyOrder(1, 2, 3, 4, 5);
+		assertThat(BSTUtils.isValid(union)).isTrue();
+
+		BST<Integer, String> reversed = BST.union(high, low);
+		assertThat(reversed.key()).isEqualTo(5);
+		assertThat(reversed.keys()).containsExactlyInAnyOrder(1, 2, 3, 4, 5);
+		assertThat(BSTUtils.isValid(reversed)).isTrue();
+	}
+
+	@Example
+	void split_separates_smaller_and_larger_keys() {
+		BST<Integer, String> updated =
+				bst.insert(10, "ten")
+				   .insert(1, "one")
+				   .insert(20, "twenty")
+				   .insert(15, "fifteen");
+
+		BST.Split<Integer, String> split = updated.split(15);
+		assertThat(split.left().keys()).containsExactlyInAnyOrder(1, 10);
+		assertThat(split.entry()).contains(new SimpleEntry<>(15, "fifteen"));
+		assertThat(split.right().keys()).containsExactly(20);
+
+		assertThat(updated.split(12).entry()).isNotPresent();
+	}
+
+	@Example
+	void fromSorted_rejects_unsorted_entries() {
+		assertThatThrownBy(() -> BST.fromSorted(Arrays.asList(
+				new SimpleEntry<>(2, "two"),
+				new SimpleEntry<>(1, "one")
+		).iterator())).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Example
+	void fromEntries_keeps_last_entry_of_duplicate_keys() {
+		BST<Integer, String> built = BST.fromEntries(Arrays.asList(
+				new SimpleEntry<>(2, "two"),
+				new SimpleEntry<>(1, "one"),
+				new SimpleEntry<>(2, "zwei")
+		));
+		assertThat(built.size()).isEqualTo(2);
+		assertThat(built.find(2)).contains("zwei");
+		assertThat(built.isSelfBalancing()).isTrue();
+	}
+
+	@Example
+	void degenerate_tree_does_not_overflow_the_stack() {
+		BST<Integer, String> degenerate = bst;
+		for (int i = 0; i < 10_000; i++) {
+			degenerate = degenerate.insert(i, "value");
+		}
+		assertThat(degenerate.height()).isEqualTo(10_000);
+		assertThat(degenerate.find(9_999)).contains("value");
+		assertThat(degenerate.keys()).hasSize(10_000);
+		assertThat(degenerate.toString()).startsWith("[0=value right: [1=value");
+		assertThat(degenerate.hashCode()).isEqualTo(degenerate.insert(42, "value").hashCode());
+		assertThat(degenerate.equals(degenerate.delete(9_999).insert(9_999, "value"))).isTrue();
+
+		BST<Integer, String> deleted = degenerate.delete(0).delete(5_000).delete(9_999);
+		assertThat(deleted.size()).isEqualTo(9_997);
+		assertThat(deleted.find(5_000)).isNotPresent();
+
+		BST<Integer, String> other = bst.insert(5_000, "other").insert(-1, "minus one");
+		BST<Integer, String> union = BST.union(degenerate, other);
+		assertThat(union.size()).isEqualTo(10_001);
+		assertThat(union.find(5_000)).contains("value");
+		assertThat(BST.union(other, degenerate).find(5_000)).contains("other");
+
+		BST.Split<Integer, String> split = degenerate.split(5_000);
+		assertThat(split.left().size()).isEqualTo(5_000);
+		assertThat(split.right().size()).isEqualTo(4_999);
+	}
+
+	@Example
+	void serialization_keeps_nil_and_deep_trees() throws Exception {
+		BST<Integer, String> balancedNil = BST.balancedNil();
+		assertThat(BSTUtils.roundTrip(bst)).isSameAs(bst);
+		assertThat(BSTUtils.roundTrip(balancedNil)).isSameAs(balancedNil);
+
+		BST<Integer, String> degenerate = bst;
+		for (int i = 0; i < 10_000; i++) {
+			degenerate = degenerate.insert(i, "value");
+		}
+		BST<Integer, String> copy = BSTUtils.roundTrip(degenerate);
+		assertThat(copy).isEqualTo(degenerate);
+		assertThat(copy.height()).isEqualTo(10_000);
+	}
+
+	@Example
+	void deserialization_rejects_keys_out_of_order() throws Exception {
+		BST<Integer, String> tree = bst.insert(2, "two").insert(3, "three");
+		// join does not check its precondition, so 1 ends up right of 3
+		BST<Integer, String> invalid = BST.join(tree, new SimpleImmutableEntry<>(4, "four"), bst.insert(1, "one"));
+		assertThatThrownBy(() -> BSTUtils.roundTrip(invalid))
+				.isInstanceOf(InvalidObjectException.class)
+				.hasMessageContaining("Key 1");
+	}
+
+	@Example
+	void deserialization_rejects_unbalanced_self_balancing_tree() throws Exception {
+		BST<Integer, String> degenerate = bst.insert(1, "one").insert(2, "two").insert(3, "three");
+		byte[] bytes = serialize(degenerate);
+		// The stream starts with the mode flag, false, and the size 3
+		int mode = indexOf(bytes, new byte[]{0, 0, 0, 0, 3});
+		assertThat(mode).isNotNegative();
+		bytes[mode] = 1;
+
+		assertThatThrownBy(() -> deserialize(bytes))
+				.isInstanceOf(InvalidObjectException.class)
+				.hasMessageContaining("not balanced");
+	}
+
+	private static byte[] serialize(Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+
+	private static int indexOf(byte[] bytes, byte[] pattern) {
+		for (int i = 0; i + pattern.length <= bytes.length; i++) {
+			if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + pattern.length), pattern)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Example
+	void versions_of_the_same_tree_share_hash_and_compare_equal() {
+		BST<Integer, String> base = bst;
+		for (int i = 0; i < 1_000; i++) {
+			base = base.insert((i * 37) % 1_000, "value");
+		}
+		BST<Integer, String> changed = base.insert(500, "changed");
+		BST<Integer, String> restored = changed.insert(500, "value");
+
+		assertThat(restored.hashCode()).isEqualTo(base.hashCode());
+		assertThat(restored.equals(base)).isTrue();
+		assertThat(changed.equals(base)).isFalse();
+		assertThat(new HashSet<>(Arrays.asList(base, changed, restored))).hasSize(2);
+	}
+
+	@Example
+	void builder_cannot_be_used_after_persistent() {
+		BST.Builder<Integer, String> builder = BST.<Integer, String>balancedNil().asTransient();
+		for (int i = 0; i < 1_000; i++) {
+			builder.insert(i, "value");
+		}
+		BST<Integer, String> built = builder.persistent();
+		assertThat(built.size()).isEqualTo(1_000);
+		assertThat(BSTUtils.isBalanced(built)).isTrue();
+
+		assertThatThrownBy(() -> builder.insert(1_000, "value")).isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(builder::persistent).isInstanceOf(IllegalStateException.class);
+
+		BST<Integer, String> next = built.asTransient().delete(500).insert(1_000, "value").persistent();
+		assertThat(built.size()).isEqualTo(1_000);
+		assertThat(built.find(500)).contains("value");
+		assertThat(next.find(500)).isEmpty();
+		assertThat(next.size()).isEqualTo(1_000);
+	}
+
+	@Example
+	void builder_allocates_about_one_node_per_entry() {
+		java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+		Assume.that(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		Assume.that(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+		int count = 100_000;
+		List<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			keys.add(i);
+		}
+		Collections.shuffle(keys, new Random(42));
+		long threadId = Thread.currentThread().getId();
+
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		BST.Builder<Integer, String> builder = BST.<Integer, String>balancedNil().asTransient();
+		for (Integer key : keys) {
+			builder.insert(key, "value");
+		}
+		for (int i = 0; i < count; i += 2) {
+			builder.delete(keys.get(i));
+		}
+		long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+		assertThat(builder.size()).isEqualTo(count / 2);
+		// A node takes about 50 bytes, allocating a search path per update would add more than 100
+		assertThat(allocated / count).isLessThan(80);
+	}
+
+	@Example
+	void set_operations_reuse_unchanged_trees() {
+		BST<Integer, String> tree = BST.nil();
+		for (int i = 0; i < 100; i++) {
+			tree = tree.insert((i * 37) % 100, "value");
+		}
+		BST<Integer, String> disjoint = BST.<Integer, String>nil().insert(1_000, "other");
+
+		assertThat(BST.intersection(tree, tree)).isSameAs(tree);
+		assertThat(BST.difference(tree, disjoint)).isSameAs(tree);
+		assertThat(BST.unionWith(tree, tree, (value1, value2) -> value1)).isSameAs(tree);
+		assertThat(BST.union(tree, tree)).isSameAs(tree);
+
+		BST<Integer, String> merged = BST.unionWith(tree, tree.insert(50, "changed"), (value1, value2) -> value1 + "+" + value2);
+		assertThat(merged.find(50)).contains("value+changed");
+		assertThat(merged.find(51)).contains("value+value");
+	}
+
+	@Example
+	void shape_of_a_small_tree() {
+		//     4
+		//    / \
+		//   2   5
+		//  / \
+		// 1   3
+		BST<Integer, String> tree = bst.insert(4, "four").insert(2, "two").insert(5, "five").insert(1, "one").insert(3, "three");
+		BSTShape shape = BSTUtils.shape(tree);
+		assertThat(shape.height()).isEqualTo(3);
+		assertThat(shape.minLeafDepth()).isEqualTo(2);
+		assertThat(shape.maxLeafDepth()).isEqualTo(3);
+		assertThat(shape.internalPathLength()).isEqualTo(1 + 2 + 2 + 3 + 3);
+		assertThat(shape.averageSearchDepth()).isEqualTo(11.0 / 5);
+		assertThat(shape.balanceFactors()).containsExactly(entry(-1, 1L), entry(0, 4L));
+	}
+
+	@Example
+	void mixed_modes_do_not_overflow_the_stack() {
+		// Joining in O(1) per key, inserting would take quadratic time
+		BST<Integer, String> degenerate = BST.nil();
+		for (int key = 0; key < 50_000; key++) {
+			degenerate = BST.join(degenerate, new SimpleImmutableEntry<>(key, "value"), BST.nil());
+		}
+		BST<Integer, String> balanced = BST.fromEntries(Arrays.asList(
+				new SimpleImmutableEntry<>(-1, "before"), new SimpleImmutableEntry<>(25_000, "middle")
+		));
+
+		BST<Integer, String> balancedFirst = BST.union(balanced, degenerate);
+		assertThat(balancedFirst.isSelfBalancing()).isTrue();
+		assertThat(balancedFirst.size()).isEqualTo(50_001);
+		assertThat(balancedFirst.find(25_000)).contains("middle");
+
+		BST<Integer, String> joined = BST.join(degenerate, new SimpleImmutableEntry<>(50_000, "joined"), BST.fromEntries(
+				Collections.singletonList(new SimpleImmutableEntry<>(50_001, "right"))
+		));
+		assertThat(joined.isSelfBalancing()).isFalse();
+		assertThat(joined.size()).isEqualTo(50_002);
+	}
 }
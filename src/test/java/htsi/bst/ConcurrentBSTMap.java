@@ -0,0 +1,117 @@
+package htsi.bst;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Thread-safe map that publishes an immutable {@link BST} through an atomic root reference.
+ *
+ * Reads are wait-free: they load the current root and search it without any locking.
+ * Writes compute a new version of the tree from the current root and install it with compare-and-set.
+ * If another writer got there first, the write retries on the newer root after a short randomized back-off.
+ * Since versions are persistent, a {@link #snapshot()} is just the current root.
+ * The atomic root also publishes every version safely, as BST nodes do not have final fields.
+ */
+public class ConcurrentBSTMap<K extends Comparable<K>, V> {
+
+	// Failed CAS attempts that are retried right away before backing off
+	private static final int SPIN_RETRIES = 4;
+	private static final int MAX_BACK_OFF_SHIFT = 16;
+
+	private final AtomicReference<BST<K, V>> root;
+
+	public ConcurrentBSTMap() {
+		this(BST.balancedNil());
+	}
+
+	public ConcurrentBSTMap(BST<K, V> initial) {
+		this.root = new AtomicReference<>(initial);
+	}
+
+	public Optional<V> find(K key) {
+		return root.get().find(key);
+	}
+
+	public boolean containsKey(K key) {
+		return find(key).isPresent();
+	}
+
+	public int size() {
+		return root.get().size();
+	}
+
+	public boolean isEmpty() {
+		return root.get().isEmpty();
+	}
+
+	/**
+	 * The current version of the tree. Later updates of the map do not affect it.
+	 */
+	public BST<K, V> snapshot() {
+		return root.get();
+	}
+
+	/**
+	 * @return the value previously associated with key
+	 */
+	public Optional<V> put(K key, V value) {
+		return update(current -> current.insert(key, value), key);
+	}
+
+	/**
+	 * @return the value previously associated with key
+	 */
+	public Optional<V> remove(K key) {
+		return update(current -> current.delete(key), key);
+	}
+
+	/**
+	 * Like {@link Map#merge(Object, Object, BiFunction)}: associates key with value if it is absent,
+	 * otherwise with the result of remapping the old and the given value. A null result removes the key.
+	 * The remapping function may be called more than once if other writers interfere.
+	 *
+	 * @return the new value associated with key, or null if there is none
+	 */
+	public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping) {
+		int failures = 0;
+		while (true) {
+			BST<K, V> current = root.get();
+			Optional<V> old = current.find(key);
+			V merged = old.isPresent() ? remapping.apply(old.get(), value) : value;
+			BST<K, V> updated = merged == null ? current.delete(key) : current.insert(key, merged);
+			if (root.compareAndSet(current, updated)) {
+				return merged;
+			}
+			backOff(++failures);
+		}
+	}
+
+	private Optional<V> update(UnaryOperator<BST<K, V>> change, K key) {
+		int failures = 0;
+		while (true) {
+			BST<K, V> current = root.get();
+			BST<K, V> updated = change.apply(current);
+			if (updated == current || root.compareAndSet(current, updated)) {
+				return current.find(key);
+			}
+			backOff(++failures);
+		}
+	}
+
+	// Randomized exponential back-off so that contending writers stop invalidating each other's work
+	private static void backOff(int failures) {
+		if (failures <= SPIN_RETRIES) {
+			return;
+		}
+		int shift = Math.min(failures - SPIN_RETRIES, MAX_BACK_OFF_SHIFT);
+		LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(1L << shift));
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentBSTMap" + root.get();
+	}
+}
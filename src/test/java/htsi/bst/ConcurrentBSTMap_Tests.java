@@ -0,0 +1,189 @@
+package htsi.bst;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import net.jqwik.api.*;
+import net.jqwik.api.constraints.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ConcurrentBSTMap_Tests {
+
+	private static final int THREADS = 8;
+
+	@Property
+	boolean sequential_updates_agree_with_map(
+			@ForAll List<@IntRange(min = -20, max = 20) Integer> keys,
+			@ForAll List<Integer> values
+	) {
+		ConcurrentBSTMap<Integer, Integer> map = new ConcurrentBSTMap<>();
+		Map<Integer, Integer> model = new HashMap<>();
+		for (int i = 0; i < keys.size(); i++) {
+			Integer key = keys.get(i);
+			Integer value = values.isEmpty() ? i : values.get(i % values.size());
+			switch (i % 3) {
+				case 0:
+					if (!map.put(key, value).equals(Optional.ofNullable(model.put(key, value)))) {
+						return false;
+					}
+					break;
+				case 1:
+					if (!map.remove(key).equals(Optional.ofNullable(model.remove(key)))) {
+						return false;
+					}
+					break;
+				default:
+					if (!Objects.equals(map.merge(key, value, Integer::sum), model.merge(key, value, Integer::sum))) {
+						return false;
+					}
+			}
+		}
+		BST<Integer, Integer> snapshot = map.snapshot();
+		return BSTUtils.isValid(snapshot) && BSTUtils.isBalanced(snapshot)
+					   && snapshot.size() == model.size()
+					   && model.entrySet().stream().allMatch(entry -> snapshot.find(entry.getKey()).equals(Optional.of(entry.getValue())));
+	}
+
+	@Example
+	void concurrent_puts_and_removes_lose_no_update() throws Exception {
+		ConcurrentBSTMap<Integer, Integer> map = new ConcurrentBSTMap<>();
+		int keysPerThread = 5_000;
+		runConcurrently(thread -> {
+			for (int i = 0; i < keysPerThread; i++) {
+				int key = i * THREADS + thread;
+				map.put(key, thread);
+				if (i % 2 == 1) {
+					map.remove(key);
+				}
+			}
+		});
+
+		BST<Integer, Integer> snapshot = map.snapshot();
+		assertThat(snapshot.size()).isEqualTo(THREADS * keysPerThread / 2);
+		assertThat(BSTUtils.isValid(snapshot)).isTrue();
+		assertThat(BSTUtils.isBalanced(snapshot)).isTrue();
+		for (int key = 0; key < THREADS * keysPerThread; key++) {
+			boolean kept = (key / THREADS) % 2 == 0;
+			assertThat(snapshot.find(key)).isEqualTo(kept ? Optional.of(key % THREADS) : Optional.empty());
+		}
+	}
+
+	@Example
+	void concurrent_merges_count_every_increment() throws Exception {
+		ConcurrentBSTMap<Integer, Integer> map = new ConcurrentBSTMap<>();
+		int incrementsPerThread = 10_000;
+		runConcurrently(thread -> {
+			for (int i = 0; i < incrementsPerThread; i++) {
+				map.merge(i % 16, 1, Integer::sum);
+			}
+		});
+
+		int total = map.snapshot().stream().mapToInt(Map.Entry::getValue).sum();
+		assertThat(total).isEqualTo(THREADS * incrementsPerThread);
+	}
+
+	@Example
+	void snapshots_are_not_affected_by_later_writes() throws Exception {
+		ConcurrentBSTMap<Integer, Integer> map = new ConcurrentBSTMap<>();
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicReference<String> inconsistency = new AtomicReference<>();
+		runConcurrently(thread -> {
+			if (thread == 0) {
+				for (int i = 0; i < 20_000; i++) {
+					map.put(i, i);
+				}
+				writing.set(false);
+				return;
+			}
+			while (writing.get()) {
+				BST<Integer, Integer> snapshot = map.snapshot();
+				int size = snapshot.size();
+				// Keys are inserted in ascending order, so every version holds exactly 0 until size - 1
+				if (snapshot.keys().size() != size || (size > 0 && !snapshot.find(size - 1).isPresent())) {
+					inconsistency.set("Inconsistent snapshot of size " + size);
+				}
+			}
+		});
+		assertThat(inconsistency.get()).isNull();
+		assertThat(map.size()).isEqualTo(20_000);
+	}
+
+	// Only runs with ./gradlew measure
+	@Example
+	@Tag("measure")
+	void throughput_compared_to_ConcurrentSkipListMap(Reporter reporter) throws Exception {
+		for (int threads : threadCounts()) {
+			ConcurrentBSTMap<Integer, Integer> bstMap = new ConcurrentBSTMap<>();
+			long bstOperations = measureThroughput(threads, bstMap::put, bstMap::find);
+			ConcurrentSkipListMap<Integer, Integer> skipListMap = new ConcurrentSkipListMap<>();
+			long skipListOperations = measureThroughput(threads, skipListMap::put, skipListMap::get);
+
+			reporter.publishValue(
+					String.format("%d threads, ops/s (90%% reads)", threads),
+					String.format("ConcurrentBSTMap %d, ConcurrentSkipListMap %d", bstOperations, skipListOperations)
+			);
+			assertThat(BSTUtils.isBalanced(bstMap.snapshot())).isTrue();
+		}
+	}
+
+	// 1, 2, 4, ... and the number of cores
+	private static List<Integer> threadCounts() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<>();
+		for (int threads = 1; threads < cores; threads *= 2) {
+			counts.add(threads);
+		}
+		counts.add(cores);
+		return counts;
+	}
+
+	// Operations per second of threads that each do one write for every nine reads
+	private static long measureThroughput(int threads, BiConsumer<Integer, Integer> write, Consumer<Integer> read) throws Exception {
+		int keyRange = 100_000;
+		int operationsPerThread = 200_000;
+		long nanos = runConcurrently(threads, thread -> {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < operationsPerThread; i++) {
+				int key = random.nextInt(keyRange);
+				if (i % 10 == 0) {
+					write.accept(key, i);
+				} else {
+					read.accept(key);
+				}
+			}
+		});
+		return (long) threads * operationsPerThread * 1_000_000_000L / nanos;
+	}
+
+	private static long runConcurrently(IntConsumer action) throws Exception {
+		return runConcurrently(THREADS, action);
+	}
+
+	// Runs the action on threads that start together and returns the elapsed wall-clock time in nanos
+	private static long runConcurrently(int threads, IntConsumer action) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			CyclicBarrier start = new CyclicBarrier(threads + 1);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < threads; thread++) {
+				int threadIndex = thread;
+				futures.add(executor.submit(() -> {
+					start.await();
+					action.accept(threadIndex);
+					return null;
+				}));
+			}
+			start.await();
+			long startNanos = System.nanoTime();
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+			return System.nanoTime() - startNanos;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package htsi.bst;
+
+import java.io.*;
+import java.util.AbstractMap.*;
+import java.util.*;
+
+/**
+ * Persistent, self-balancing (AVL) search tree specialised for int keys and int values.
+ *
+ * Keys and values are stored inline in the nodes, so there is no boxing and no entry object per node.
+ * Lookups through {@link #containsKey(int)}, {@link #get(int)} and {@link #findOrDefault(int, int)} do not allocate.
+ */
+public class IntIntBST implements Serializable {
+
+	private static final IntIntBST NIL = new IntIntBST();
+
+	public static IntIntBST nil() {
+		return NIL;
+	}
+
+	/**
+	 * Build a perfectly balanced tree from keys in strictly ascending order and their values in O(n).
+	 *
+	 * @throws IllegalArgumentException if keys are not strictly ascending or the arrays differ in length
+	 */
+	public static IntIntBST fromSorted(int[] keys, int[] values) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException(String.format("%s keys but %s values", keys.length, values.length));
+		}
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i - 1] >= keys[i]) {
+				throw new IllegalArgumentException(String.format("Key %s is not larger than its predecessor", keys[i]));
+			}
+		}
+		return build(keys, values, 0, keys.length);
+	}
+
+	private static IntIntBST build(int[] keys, int[] values, int from, int to) {
+		if (from >= to) {
+			return NIL;
+		}
+		int middle = (from + to) >>> 1;
+		return new IntIntBST(build(keys, values, from, middle), keys[middle], values[middle], build(keys, values, middle + 1, to));
+	}
+
+	public static IntIntBST union(IntIntBST bst1, IntIntBST bst2) {
+		if (bst2.isEmpty()) {
+			return bst1;
+		}
+		if (bst1.isEmpty()) {
+			return bst2;
+		}
+		IntIntBST smaller = bst2.splitSmaller(bst1.key);
+		IntIntBST larger = bst2.splitLarger(bst1.key);
+		return join(union(bst1.left, smaller), bst1.key, bst1.value, union(bst1.right, larger));
+	}
+
+	private static IntIntBST join(IntIntBST left, int key, int value, IntIntBST right) {
+		if (left.height > right.height + 1) {
+			return balance(left.left, left.key, left.value, join(left.right, key, value, right));
+		}
+		if (right.height > left.height + 1) {
+			return balance(join(left, key, value, right.left), right.key, right.value, right.right);
+		}
+		return new IntIntBST(left, key, value, right);
+	}
+
+	// Rebuilds a node whose subtrees' heights differ by at most 2 with AVL rotations
+	private static IntIntBST balance(IntIntBST left, int key, int value, IntIntBST right) {
+		if (left.height > right.height + 1) {
+			if (left.left.height >= left.right.height) {
+				return new IntIntBST(left.left, left.key, left.value, new IntIntBST(left.right, key, value, right));
+			}
+			IntIntBST pivot = left.right;
+			return new IntIntBST(
+					new IntIntBST(left.left, left.key, left.value, pivot.left),
+					pivot.key, pivot.value,
+					new IntIntBST(pivot.right, key, value, right)
+			);
+		}
+		if (right.height > left.height + 1) {
+			if (right.right.height >= right.left.height) {
+				return new IntIntBST(new IntIntBST(left, key, value, right.left), right.key, right.value, right.right);
+			}
+			IntIntBST pivot = right.left;
+			return new IntIntBST(
+					new IntIntBST(left, key, value, pivot.left),
+					pivot.key, pivot.value,
+					new IntIntBST(pivot.right, right.key, right.value, right.right)
+			);
+		}
+		return new IntIntBST(left, key, value, right);
+	}
+
+	private final IntIntBST left;
+	private final int key;
+	private final int value;
+	private final IntIntBST right;
+	private final int size;
+	private final int height;
+	// Sum of key ^ value over all entries, like Map.hashCode, so that it does not depend on the shape
+	private final int hash;
+
+	private IntIntBST() {
+		this.left = this;
+		this.key = 0;
+		this.value = 0;
+		this.right = this;
+		this.size = 0;
+		this.height = 0;
+		this.hash = 0;
+	}
+
+	private IntIntBST(IntIntBST left, int key, int value, IntIntBST right) {
+		this.left = left;
+		this.key = key;
+		this.value = value;
+		this.right = right;
+		this.size = 1 + left.size + right.size;
+		this.height = 1 + Math.max(left.height, right.height);
+		this.hash = left.hash + (key ^ value) + right.hash;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int height() {
+		return height;
+	}
+
+	public boolean containsKey(int key) {
+		return node(key) != NIL;
+	}
+
+	/**
+	 * @throws NoSuchElementException if key is not present
+	 */
+	public int get(int key) {
+		IntIntBST node = node(key);
+		if (node == NIL) {
+			throw new NoSuchElementException("No entry for key " + key);
+		}
+		return node.value;
+	}
+
+	public int findOrDefault(int key, int defaultValue) {
+		IntIntBST node = node(key);
+		return node == NIL ? defaultValue : node.value;
+	}
+
+	public OptionalInt find(int key) {
+		IntIntBST node = node(key);
+		return node == NIL ? OptionalInt.empty() : OptionalInt.of(node.value);
+	}
+
+	private IntIntBST node(int key) {
+		IntIntBST current = this;
+		while (current != NIL) {
+			if (key < current.key) {
+				current = current.left;
+			} else if (key > current.key) {
+				current = current.right;
+			} else {
+				return current;
+			}
+		}
+		return NIL;
+	}
+
+	public IntIntBST insert(int key, int value) {
+		if (this == NIL) {
+			return new IntIntBST(NIL, key, value, NIL);
+		}
+		if (key < this.key) {
+			return balance(left.insert(key, value), this.key, this.value, right);
+		}
+		if (key > this.key) {
+			return balance(left, this.key, this.value, right.insert(key, value));
+		}
+		if (value == this.value) {
+			return this;
+		}
+		return new IntIntBST(left, key, value, right);
+	}
+
+	public IntIntBST delete(int key) {
+		if (this == NIL) {
+			return this;
+		}
+		if (key < this.key) {
+			IntIntBST newLeft = left.delete(key);
+			return newLeft == left ? this : balance(newLeft, this.key, this.value, right);
+		}
+		if (key > this.key) {
+			IntIntBST newRight = right.delete(key);
+			return newRight == right ? this : balance(left, this.key, this.value, newRight);
+		}
+		if (left == NIL) {
+			return right;
+		}
+		if (right == NIL) {
+			return left;
+		}
+		IntIntBST successor = right;
+		while (successor.left != NIL) {
+			successor = successor.left;
+		}
+		return balance(left, successor.key, successor.value, right.deleteMin());
+	}
+
+	private IntIntBST deleteMin() {
+		if (left == NIL) {
+			return right;
+		}
+		return balance(left.deleteMin(), key, value, right);
+	}
+
+	// All entries with a key smaller than the given key
+	private IntIntBST splitSmaller(int key) {
+		if (this == NIL) {
+			return this;
+		}
+		if (key < this.key) {
+			return left.splitSmaller(key);
+		}
+		if (key > this.key) {
+			return join(left, this.key, this.value, right.splitSmaller(key));
+		}
+		return left;
+	}
+
+	// All entries with a key larger than the given key
+	private IntIntBST splitLarger(int key) {
+		if (this == NIL) {
+			return this;
+		}
+		if (key < this.key) {
+			return join(left.splitLarger(key), this.key, this.value, right);
+		}
+		if (key > this.key) {
+			return right.splitLarger(key);
+		}
+		return right;
+	}
+
+	/**
+	 * All keys in ascending order.
+	 */
+	public int[] keys() {
+		int[] keys = new int[size];
+		collect(keys, true);
+		return keys;
+	}
+
+	/**
+	 * All values in ascending order of their keys.
+	 */
+	public int[] values() {
+		int[] values = new int[size];
+		collect(values, false);
+		return values;
+	}
+
+	/**
+	 * All entries in ascending key order. Keys and values are boxed, prefer {@link #keys()} and {@link #values()}.
+	 */
+	public List<Map.Entry<Integer, Integer>> toList() {
+		List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(size);
+		InOrder nodes = new InOrder(this);
+		while (nodes.hasNext()) {
+			IntIntBST next = nodes.next();
+			entries.add(new SimpleImmutableEntry<>(next.key, next.value));
+		}
+		return entries;
+	}
+
+	private void collect(int[] target, boolean keys) {
+		InOrder nodes = new InOrder(this);
+		for (int index = 0; nodes.hasNext(); index++) {
+			IntIntBST next = nodes.next();
+			target[index] = keys ? next.key : next.value;
+		}
+	}
+
+	// Nodes in ascending key order, with a stack as deep as the tree
+	private static class InOrder {
+		private final IntIntBST[] stack;
+		private int depth = 0;
+		private IntIntBST current;
+
+		private InOrder(IntIntBST root) {
+			this.stack = new IntIntBST[root.height];
+			this.current = root;
+		}
+
+		private boolean hasNext() {
+			return current != NIL || depth > 0;
+		}
+
+		private IntIntBST next() {
+			while (current != NIL) {
+				stack[depth++] = current;
+				current = current.left;
+			}
+			IntIntBST next = stack[--depth];
+			current = next.right;
+			return next;
+		}
+	}
+
+	private Object writeReplace() {
+		return new SerializationProxy(keys(), values());
+	}
+
+	private void readObject(ObjectInputStream in) throws InvalidObjectException {
+		throw new InvalidObjectException("IntIntBST must be deserialized through its serialization proxy");
+	}
+
+	private static class SerializationProxy implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] keys;
+		private final int[] values;
+
+		private SerializationProxy(int[] keys, int[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		private Object readResolve() throws InvalidObjectException {
+			try {
+				return fromSorted(keys, values);
+			} catch (IllegalArgumentException e) {
+				throw new InvalidObjectException(e.getMessage());
+			}
+		}
+	}
+
+	// Two trees are equal if they contain the same entries. Their shapes may differ.
+	// Both trees are walked in key order at the same time, without copying their entries.
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		IntIntBST bst = (IntIntBST) o;
+		if (size != bst.size || hash != bst.hash) return false;
+		InOrder mine = new InOrder(this);
+		InOrder theirs = new InOrder(bst);
+		while (mine.hasNext()) {
+			IntIntBST next = mine.next();
+			IntIntBST other = theirs.next();
+			if (next.key != other.key || next.value != other.value) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		if (this == NIL) {
+			return "NIL";
+		}
+		String leftString = left == NIL ? "" : " left: " + left;
+		String rightString = right == NIL ? "" : " right: " + right;
+		return String.format("[%s=%s%s%s]", key, value, leftString, rightString);
+	}
+}
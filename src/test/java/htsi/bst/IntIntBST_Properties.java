@@ -0,0 +1,106 @@
+package htsi.bst;
+
+import java.io.*;
+import java.util.*;
+
+import net.jqwik.api.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+class IntIntBST_Properties {
+
+	@Property
+	boolean behaves_like_tree_map(@ForAll("operations") List<int[]> operations, @ForAll("key") int lookup) {
+		IntIntBST bst = IntIntBST.nil();
+		TreeMap<Integer, Integer> model = new TreeMap<>();
+		for (int[] operation : operations) {
+			if (operation[0] == 0) {
+				bst = bst.delete(operation[1]);
+				model.remove(operation[1]);
+			} else {
+				bst = bst.insert(operation[1], operation[2]);
+				model.put(operation[1], operation[2]);
+			}
+		}
+		return bst.size() == model.size()
+					   && Arrays.equals(bst.keys(), model.keySet().stream().mapToInt(Integer::intValue).toArray())
+					   && Arrays.equals(bst.values(), model.values().stream().mapToInt(Integer::intValue).toArray())
+					   && bst.containsKey(lookup) == model.containsKey(lookup)
+					   && bst.findOrDefault(lookup, -1) == model.getOrDefault(lookup, -1)
+					   && bst.height() <= BSTUtils.maxBalancedHeight(bst.size());
+	}
+
+	@Property
+	boolean union_is_left_biased(@ForAll("trees") IntIntBST bst1, @ForAll("trees") IntIntBST bst2) {
+		TreeMap<Integer, Integer> model = toMap(bst2);
+		model.putAll(toMap(bst1));
+		IntIntBST union = IntIntBST.union(bst1, bst2);
+		return toMap(union).equals(model) && union.height() <= BSTUtils.maxBalancedHeight(union.size());
+	}
+
+	@Property
+	boolean serialization_round_trip(@ForAll("trees") IntIntBST bst) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(bst);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			IntIntBST copy = (IntIntBST) in.readObject();
+			return copy.equals(bst) && copy.insert(1, 1).equals(bst.insert(1, 1));
+		}
+	}
+
+	@Property
+	boolean equal_entries_whatever_the_shape(@ForAll("trees") IntIntBST bst) {
+		// Balanced from the sorted entries, usually a different shape than the tree built by updates
+		IntIntBST rebuilt = IntIntBST.fromSorted(bst.keys(), bst.values());
+		TreeMap<Integer, Integer> model = toMap(bst);
+		return rebuilt.equals(bst) && bst.equals(rebuilt)
+					   && rebuilt.hashCode() == bst.hashCode()
+					   && bst.hashCode() == model.hashCode()
+					   && bst.toList().equals(new ArrayList<>(model.entrySet()))
+					   && !bst.insert(Integer.MAX_VALUE, 1).equals(bst.insert(Integer.MAX_VALUE, 2));
+	}
+
+	@Example
+	void get_absent_key_throws() {
+		assertThatThrownBy(() -> IntIntBST.nil().insert(1, 2).get(2))
+				.isInstanceOf(NoSuchElementException.class)
+				.hasMessageContaining("2");
+	}
+
+	private TreeMap<Integer, Integer> toMap(IntIntBST bst) {
+		TreeMap<Integer, Integer> map = new TreeMap<>();
+		int[] keys = bst.keys();
+		int[] values = bst.values();
+		for (int i = 0; i < keys.length; i++) {
+			map.put(keys[i], values[i]);
+		}
+		return map;
+	}
+
+	@Provide
+	Arbitrary<IntIntBST> trees() {
+		return operations().map(operations -> {
+			IntIntBST bst = IntIntBST.nil();
+			for (int[] operation : operations) {
+				bst = operation[0] == 0 ? bst.delete(operation[1]) : bst.insert(operation[1], operation[2]);
+			}
+			return bst;
+		});
+	}
+
+	// {0, key, _} deletes key, {1, key, value} inserts it
+	@Provide
+	Arbitrary<List<int[]>> operations() {
+		Arbitrary<Integer> kinds = Arbitraries.integers().between(0, 3).map(kind -> Math.min(kind, 1));
+		return Combinators.combine(kinds, key(), Arbitraries.integers())
+						  .as((kind, key, value) -> new int[]{kind, key, value})
+						  .list().ofMaxSize(200);
+	}
+
+	@Provide
+	Arbitrary<Integer> key() {
+		return BSTArbitraries.keys();
+	}
+}
@@ -0,0 +1,87 @@
+package htsi.bst;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import net.jqwik.api.*;
+
+/**
+ * Runs a statistics-only property like {@code BST_Properties.measure} on all cores.
+ *
+ * Tries are split into one shard per core. Every shard draws its samples from the same generator with an independent random
+ * derived from the seed, counts the labels it collects, and the counts of all shards are merged at the end.
+ * The generator is created on the calling thread, which must run inside a jqwik property or example,
+ * with the number of tries as generation size like jqwik does, so samples follow the distribution a property would see.
+ * Generating must not depend on the jqwik thread, so the arbitrary must not use oneOf, frequencyOf or flatMap,
+ * which create generators per sample. Edge cases are not mixed in. Since nothing is shrunk, the measuring code must not fail.
+ */
+class ShardedStatistics {
+
+	interface Labels {
+		void collect(String label, Object value);
+	}
+
+	/**
+	 * @return counts per label name and value, label names in the order they were first collected
+	 */
+	static <T> Map<String, Map<Object, Long>> collect(Arbitrary<T> arbitrary, int tries, long seed, BiConsumer<T, Labels> measure) {
+		RandomGenerator<T> generator = arbitrary.generator(tries);
+		int shards = Runtime.getRuntime().availableProcessors();
+		Random seeds = new Random(seed);
+		List<Shard<T>> shardList = new ArrayList<>();
+		for (int i = 0; i < shards; i++) {
+			int shardTries = tries / shards + (i < tries % shards ? 1 : 0);
+			shardList.add(new Shard<>(generator, new Random(seeds.nextLong()), shardTries));
+		}
+		return shardList.parallelStream()
+						.map(shard -> shard.run(measure))
+						.reduce(new LinkedHashMap<>(), ShardedStatistics::merge);
+	}
+
+	private static Map<String, Map<Object, Long>> merge(Map<String, Map<Object, Long>> counts1, Map<String, Map<Object, Long>> counts2) {
+		Map<String, Map<Object, Long>> merged = new LinkedHashMap<>();
+		Stream.of(counts1, counts2).forEach(counts -> counts.forEach(
+				(label, values) -> values.forEach(
+						(value, count) -> merged.computeIfAbsent(label, l -> new LinkedHashMap<>()).merge(value, count, Long::sum)
+				)
+		));
+		return merged;
+	}
+
+	/**
+	 * Percentages and counts of all values of a label, most frequent first.
+	 */
+	static String format(Map<Object, Long> counts) {
+		long total = counts.values().stream().mapToLong(Long::longValue).sum();
+		return counts.entrySet().stream()
+					 .sorted(Map.Entry.<Object, Long>comparingByValue().reversed())
+					 .map(entry -> String.format("%s (%.2f%%) %d", entry.getKey(), 100.0 * entry.getValue() / total, entry.getValue()))
+					 .collect(Collectors.joining(", "));
+	}
+
+	private static class Shard<T> implements Labels {
+		private final RandomGenerator<T> generator;
+		private final Random random;
+		private final int tries;
+		private final Map<String, Map<Object, Long>> counts = new LinkedHashMap<>();
+
+		private Shard(RandomGenerator<T> generator, Random random, int tries) {
+			this.generator = generator;
+			this.random = random;
+			this.tries = tries;
+		}
+
+		private Map<String, Map<Object, Long>> run(BiConsumer<T, Labels> measure) {
+			for (int i = 0; i < tries; i++) {
+				measure.accept(generator.next(random).value(), this);
+			}
+			return counts;
+		}
+
+		@Override
+		public void collect(String label, Object value) {
+			counts.computeIfAbsent(label, l -> new LinkedHashMap<>()).merge(value, 1L, Long::sum);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package htsi.bst;
+
+import java.util.AbstractMap.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Model of a {@link BST} as a sorted map, backed by a {@link TreeMap}.
+ *
+ * Operations mirror those of BST and return a new model, so models can be used like the persistent trees they describe.
+ * Every operation costs at most O(n log n), and {@link #matches(BST)} compares with a tree in a single in-order pass.
+ */
+class SortedMapModel<K extends Comparable<K>, V> {
+
+	private final TreeMap<K, V> entries;
+
+	private SortedMapModel(TreeMap<K, V> entries) {
+		this.entries = entries;
+	}
+
+	static <K extends Comparable<K>, V> SortedMapModel<K, V> nil() {
+		return new SortedMapModel<>(new TreeMap<K, V>());
+	}
+
+	static <K extends Comparable<K>, V> SortedMapModel<K, V> of(BST<K, V> bst) {
+		TreeMap<K, V> entries = new TreeMap<>();
+		for (Map.Entry<K, V> entry : bst) {
+			entries.put(entry.getKey(), entry.getValue());
+		}
+		return new SortedMapModel<>(entries);
+	}
+
+	static <K extends Comparable<K>, V> SortedMapModel<K, V> union(SortedMapModel<K, V> model1, SortedMapModel<K, V> model2) {
+		return unionWith(model1, model2, (value1, value2) -> value1);
+	}
+
+	static <K extends Comparable<K>, V> SortedMapModel<K, V> unionWith(
+			SortedMapModel<K, V> model1, SortedMapModel<K, V> model2,
+			BiFunction<? super V, ? super V, ? extends V> mergeFn
+	) {
+		TreeMap<K, V> union = new TreeMap<>(model1.entries);
+		model2.entries.forEach((key, value) -> union.merge(key, value, mergeFn));
+		return new SortedMapModel<>(union);
+	}
+
+	static <K extends Comparable<K>, V> SortedMapModel<K, V> intersection(SortedMapModel<K, V> model1, SortedMapModel<K, V> model2) {
+		TreeMap<K, V> intersection = new TreeMap<>(model1.entries);
+		intersection.keySet().retainAll(model2.entries.keySet());
+		return new SortedMapModel<>(intersection);
+	}
+
+	static <K extends Comparable<K>, V> SortedMapModel<K, V> difference(SortedMapModel<K, V> model1, SortedMapModel<K, V> model2) {
+		TreeMap<K, V> difference = new TreeMap<>(model1.entries);
+		difference.keySet().removeAll(model2.entries.keySet());
+		return new SortedMapModel<>(difference);
+	}
+
+	SortedMapModel<K, V> insert(K key, V value) {
+		TreeMap<K, V> inserted = new TreeMap<>(entries);
+		inserted.put(key, value);
+		return new SortedMapModel<>(inserted);
+	}
+
+	SortedMapModel<K, V> delete(K key) {
+		TreeMap<K, V> deleted = new TreeMap<>(entries);
+		deleted.remove(key);
+		return new SortedMapModel<>(deleted);
+	}
+
+	Optional<V> find(K key) {
+		return entries.containsKey(key) ? Optional.of(entries.get(key)) : Optional.empty();
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	List<Map.Entry<K, V>> toList() {
+		List<Map.Entry<K, V>> list = new ArrayList<>(entries.size());
+		entries.forEach((key, value) -> list.add(new SimpleImmutableEntry<>(key, value)));
+		return list;
+	}
+
+	/**
+	 * Whether bst contains exactly the entries of this model. Both are traversed in key order once.
+	 */
+	boolean matches(BST<K, V> bst) {
+		if (bst.size() != entries.size()) {
+			return false;
+		}
+		Iterator<Map.Entry<K, V>> expected = entries.entrySet().iterator();
+		for (Map.Entry<K, V> actual : bst) {
+			if (!expected.hasNext()) {
+				return false;
+			}
+			Map.Entry<K, V> next = expected.next();
+			if (next.getKey().compareTo(actual.getKey()) != 0 || !Objects.equals(next.getValue(), actual.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "SortedMapModel" + entries;
+	}
+}